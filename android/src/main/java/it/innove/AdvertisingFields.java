@@ -0,0 +1,53 @@
+package it.innove;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableArray;
+
+/**
+ * The advertising fields a scan sends to JS, as a bitmask built from the advertisingFields scan option.
+ * Fields that are not requested are not serialized at all, id, name and rssi are always sent.
+ */
+public class AdvertisingFields {
+
+    public static final int LOCAL_NAME = 1;
+    public static final int MANUFACTURER_DATA = 1 << 1;
+    public static final int SERVICE_UUIDS = 1 << 2;
+    public static final int SERVICE_DATA = 1 << 3;
+    public static final int TX_POWER_LEVEL = 1 << 4;
+    public static final int IS_CONNECTABLE = 1 << 5;
+    public static final int ALL = (1 << 6) - 1;
+
+    private AdvertisingFields() {
+    }
+
+    public static int fromArray(@Nullable ReadableArray names) {
+        if (names == null) {
+            return ALL;
+        }
+        int fields = 0;
+        for (int i = 0; i < names.size(); i++) {
+            fields |= fromString(names.getString(i));
+        }
+        return fields;
+    }
+
+    public static int fromString(String name) {
+        switch (name) {
+            case "localName":
+                return LOCAL_NAME;
+            case "manufacturerData":
+                return MANUFACTURER_DATA;
+            case "serviceUUIDs":
+                return SERVICE_UUIDS;
+            case "serviceData":
+                return SERVICE_DATA;
+            case "txPowerLevel":
+                return TX_POWER_LEVEL;
+            case "isConnectable":
+                return IS_CONNECTABLE;
+            default:
+                throw new IllegalArgumentException("Unknown advertising field: " + name);
+        }
+    }
+}
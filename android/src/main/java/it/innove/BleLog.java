@@ -0,0 +1,108 @@
+package it.innove;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.UUID;
+
+/**
+ * Logging of the module, gated by the logLevel start option, plus the optional GattTrace of recent GATT events.
+ *
+ * A disabled call only reads a volatile field, but its arguments are still evaluated: on hot paths (notifications,
+ * reads and writes, scan results) messages that concatenate or hex encode are built behind isDebugEnabled()
+ * or isEnabled(). trace() records references only, nothing is formatted until the trace is dumped.
+ */
+public final class BleLog {
+
+    // above Log.ASSERT, nothing is logged
+    public static final int NONE = Integer.MAX_VALUE;
+
+    private static volatile int level = Log.DEBUG;
+    @Nullable
+    private static volatile GattTrace trace;
+
+    private BleLog() {
+    }
+
+    public static int levelFromString(@Nullable String level) {
+        if (level == null) {
+            return Log.DEBUG;
+        }
+        switch (level) {
+            case "verbose":
+                return Log.VERBOSE;
+            case "debug":
+                return Log.DEBUG;
+            case "info":
+                return Log.INFO;
+            case "warn":
+                return Log.WARN;
+            case "error":
+                return Log.ERROR;
+            case "none":
+                return NONE;
+            default:
+                throw new IllegalArgumentException("Unknown log level: " + level);
+        }
+    }
+
+    public static void setLevel(int level) {
+        BleLog.level = level;
+    }
+
+    // Replaces the trace with an empty one of the given size, 0 disables tracing
+    public static void setTraceSize(int size) {
+        trace = size > 0 ? new GattTrace(size) : null;
+    }
+
+    @Nullable
+    public static GattTrace getTrace() {
+        return trace;
+    }
+
+    public static boolean isEnabled(int priority) {
+        return priority >= level;
+    }
+
+    public static boolean isDebugEnabled() {
+        return Log.DEBUG >= level;
+    }
+
+    public static void d(String message) {
+        if (Log.DEBUG >= level) {
+            Log.d(BleManager.LOG_TAG, message);
+        }
+    }
+
+    public static void d(String message, Throwable throwable) {
+        if (Log.DEBUG >= level) {
+            Log.d(BleManager.LOG_TAG, message, throwable);
+        }
+    }
+
+    public static void i(String message) {
+        if (Log.INFO >= level) {
+            Log.i(BleManager.LOG_TAG, message);
+        }
+    }
+
+    public static void w(String message) {
+        if (Log.WARN >= level) {
+            Log.w(BleManager.LOG_TAG, message);
+        }
+    }
+
+    public static void e(String message) {
+        if (Log.ERROR >= level) {
+            Log.e(BleManager.LOG_TAG, message);
+        }
+    }
+
+    public static void trace(String event, String peripheral, @Nullable UUID characteristic, int status, int length) {
+        GattTrace current = trace;
+        if (current != null) {
+            current.add(event, peripheral, characteristic, status, length);
+        }
+    }
+}
@@ -15,7 +15,8 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Build;
-import android.util.Log;
+import android.os.Handler;
+import android.util.Base64;
 
 import androidx.annotation.Nullable;
 
@@ -33,16 +34,15 @@ import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
 
 import java.lang.reflect.Method;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 class BleManager extends ReactContextBaseJavaModule {
 
     public static final String LOG_TAG = "ReactNativeBleManager";
     private static final int ENABLE_REQUEST = 539;
+    private static final int DEFAULT_FRAME_BUFFER_SIZE = 512;
 
     private class BondRequest {
         private String uuid;
@@ -70,16 +70,56 @@ class BleManager extends ReactContextBaseJavaModule {
     private BondRequest bondRequest;
     private BondRequest removeBondRequest;
     private boolean forceLegacy;
+    private NotificationBatcher notificationBatcher;
+    private volatile GattThreadPool gattThreadPool = new GattThreadPool(GattThreadPool.MODE_MAIN, 0);
+    private int commandTimeout = 0;
+    private int scanQueueSize = ScanIngestion.DEFAULT_CAPACITY;
+    private final BleMetrics metrics = new BleMetrics();
+    private volatile GattTransport.Factory gattTransportFactory = BluetoothGattTransport.FACTORY;
 
     public ReactApplicationContext getReactContext() {
         return reactContext;
     }
 
+    public Handler getGattHandler(Peripheral peripheral) {
+        return gattThreadPool.obtain(peripheral);
+    }
+
+    public void releaseGattHandler(Peripheral peripheral) {
+        gattThreadPool.release(peripheral);
+    }
+
+    public int getCommandTimeout() {
+        return commandTimeout;
+    }
+
+    public BleMetrics getMetrics() {
+        return metrics;
+    }
+
+    public GattTransport.Factory getGattTransportFactory() {
+        return gattTransportFactory;
+    }
+
+    // Used for the following connections, e.g. the SimulatedGattTransport.Factory of the unit tests
+    public void setGattTransportFactory(GattTransport.Factory factory) {
+        gattTransportFactory = factory;
+    }
+
+    public int getScanQueueSize() {
+        return scanQueueSize;
+    }
+
+    @Nullable
+    public NotificationBatcher getNotificationBatcher() {
+        return notificationBatcher;
+    }
+
     private final ActivityEventListener mActivityEventListener = new BaseActivityEventListener() {
 
         @Override
         public void onActivityResult(Activity activity, int requestCode, int resultCode, Intent intent) {
-            Log.d(LOG_TAG, "onActivityResult");
+            BleLog.d("onActivityResult");
             if (requestCode == ENABLE_REQUEST && enableBluetoothCallback != null) {
                 if (resultCode == RESULT_OK) {
                     enableBluetoothCallback.invoke();
@@ -93,7 +133,17 @@ class BleManager extends ReactContextBaseJavaModule {
     };
 
     // key is the MAC Address
-    private final Map<String, Peripheral> peripherals = new LinkedHashMap<>();
+    private final PeripheralRegistry peripherals = new PeripheralRegistry(new PeripheralRegistry.Listener() {
+        @Override
+        public void onAdded(Peripheral peripheral) {
+            peripheral.onAdded();
+        }
+
+        @Override
+        public void onRemoved(Peripheral peripheral) {
+            peripheral.onRemoved();
+        }
+    });
     // scan session id
 
     public BleManager(ReactApplicationContext reactContext) {
@@ -101,7 +151,7 @@ class BleManager extends ReactContextBaseJavaModule {
         context = reactContext;
         this.reactContext = reactContext;
         reactContext.addActivityEventListener(mActivityEventListener);
-        Log.d(LOG_TAG, "BleManager created");
+        BleLog.d("BleManager created");
     }
 
     @Override
@@ -125,14 +175,15 @@ class BleManager extends ReactContextBaseJavaModule {
     }
 
     public void sendEvent(String eventName, @Nullable WritableMap params) {
+        metrics.onEventEmitted();
         getReactApplicationContext().getJSModule(RCTNativeAppEventEmitter.class).emit(eventName, params);
     }
 
     @ReactMethod
     public void start(ReadableMap options, Callback callback) {
-        Log.d(LOG_TAG, "start");
+        BleLog.d("start");
         if (getBluetoothAdapter() == null) {
-            Log.d(LOG_TAG, "No bluetooth support");
+            BleLog.d("No bluetooth support");
             callback.invoke("No bluetooth support");
             return;
         }
@@ -141,12 +192,57 @@ class BleManager extends ReactContextBaseJavaModule {
             forceLegacy = options.getBoolean("forceLegacy");
         }
 
+        int gattThreading;
+        int logLevel;
+        try {
+            gattThreading = GattThreadPool.modeFromString(
+                    options.hasKey("gattThreading") ? options.getString("gattThreading") : null);
+            logLevel = BleLog.levelFromString(options.hasKey("logLevel") ? options.getString("logLevel") : null);
+        } catch (IllegalArgumentException e) {
+            callback.invoke(e.getMessage());
+            return;
+        }
+        BleLog.setLevel(logLevel);
+        BleLog.setTraceSize(options.hasKey("traceBufferSize") ? options.getInt("traceBufferSize") : 0);
+        int gattThreadPoolSize = options.hasKey("gattThreadPoolSize") ? options.getInt("gattThreadPoolSize") : 2;
+        if (!gattThreadPool.hasConfiguration(gattThreading, gattThreadPoolSize)) {
+            // A peripheral keeps the handler it obtained. The ones that may still use it are closed on it
+            // before its thread stops, then every peripheral is dropped so the next ones use the new pool.
+            for (Peripheral peripheral : peripherals.values()) {
+                if (peripheral.isConnected() || peripheral.isConnecting()) {
+                    peripheral.disconnect(null, true);
+                }
+            }
+            peripherals.clear();
+            gattThreadPool.shutdown();
+            gattThreadPool = new GattThreadPool(gattThreading, gattThreadPoolSize);
+        }
+        commandTimeout = options.hasKey("commandTimeout") ? Math.max(0, options.getInt("commandTimeout")) : 0;
+        peripherals.configure(
+                options.hasKey("maxPeripherals") ? options.getInt("maxPeripherals") : PeripheralRegistry.DEFAULT_CAPACITY,
+                options.hasKey("peripheralTtl") ? options.getInt("peripheralTtl") : 0);
+        scanQueueSize = options.hasKey("scanQueueSize") ? Math.max(1, options.getInt("scanQueueSize"))
+                : ScanIngestion.DEFAULT_CAPACITY;
+
+        if (scanManager != null) {
+            scanManager.shutdown();
+        }
         if (Build.VERSION.SDK_INT >= LOLLIPOP && !forceLegacy) {
             scanManager = new LollipopScanManager(reactContext, this);
         } else {
             scanManager = new LegacyScanManager(reactContext, this);
         }
 
+        if (notificationBatcher != null) {
+            notificationBatcher.flush();
+            notificationBatcher = null;
+        }
+        if (options.hasKey("notificationBatchInterval") && options.getInt("notificationBatchInterval") > 0) {
+            int batchSize = options.hasKey("notificationBatchSize") ? options.getInt("notificationBatchSize") : 100;
+            notificationBatcher = new NotificationBatcher(this, options.getInt("notificationBatchInterval"),
+                    Math.max(1, batchSize));
+        }
+
         IntentFilter filter = new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED);
         filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         context.registerReceiver(mReceiver, filter);
@@ -154,13 +250,13 @@ class BleManager extends ReactContextBaseJavaModule {
         intentFilter.setPriority(IntentFilter.SYSTEM_HIGH_PRIORITY);
         context.registerReceiver(mReceiver, intentFilter);
         callback.invoke();
-        Log.d(LOG_TAG, "BleManager initialized");
+        BleLog.d("BleManager initialized");
     }
 
     @ReactMethod
     public void enableBluetooth(Callback callback) {
         if (getBluetoothAdapter() == null) {
-            Log.d(LOG_TAG, "No bluetooth support");
+            BleLog.d("No bluetooth support");
             callback.invoke("No bluetooth support");
             return;
         }
@@ -178,9 +274,9 @@ class BleManager extends ReactContextBaseJavaModule {
     @ReactMethod
     public void scan(ReadableArray serviceUUIDs, final int scanSeconds, boolean allowDuplicates, ReadableMap options,
                      Callback callback) {
-        Log.d(LOG_TAG, "scan");
+        BleLog.d("scan");
         if (getBluetoothAdapter() == null) {
-            Log.d(LOG_TAG, "No bluetooth support");
+            BleLog.d("No bluetooth support");
             callback.invoke("No bluetooth support");
             return;
         }
@@ -188,25 +284,22 @@ class BleManager extends ReactContextBaseJavaModule {
             return;
         }
 
-        synchronized (peripherals) {
-            for (Iterator<Map.Entry<String, Peripheral>> iterator = peripherals.entrySet().iterator(); iterator
-                    .hasNext(); ) {
-                Map.Entry<String, Peripheral> entry = iterator.next();
-                if (!(entry.getValue().isConnected() || entry.getValue().isConnecting())) {
-                    iterator.remove();
-                }
+        peripherals.removeDisconnected();
+
+        if (scanManager != null) {
+            try {
+                scanManager.scan(serviceUUIDs, scanSeconds, allowDuplicates, options, callback);
+            } catch (IllegalArgumentException e) {
+                callback.invoke(e.getMessage());
             }
         }
-
-        if (scanManager != null)
-            scanManager.scan(serviceUUIDs, scanSeconds, options, callback);
     }
 
     @ReactMethod
     public void stopScan(Callback callback) {
-        Log.d(LOG_TAG, "Stop scan");
+        BleLog.d("Stop scan");
         if (getBluetoothAdapter() == null) {
-            Log.d(LOG_TAG, "No bluetooth support");
+            BleLog.d("No bluetooth support");
             callback.invoke("No bluetooth support");
             return;
         }
@@ -224,7 +317,7 @@ class BleManager extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void createBond(String peripheralUUID, String peripheralPin, Callback callback) {
-        Log.d(LOG_TAG, "Request bond to: " + peripheralUUID);
+        BleLog.d("Request bond to: " + peripheralUUID);
 
         Set<BluetoothDevice> deviceSet = getBluetoothAdapter().getBondedDevices();
         for (BluetoothDevice device : deviceSet) {
@@ -242,7 +335,7 @@ class BleManager extends ReactContextBaseJavaModule {
             callback.invoke("Only allow one bond request at a time");
             return;
         } else if (peripheral.getDevice().createBond()) {
-            Log.d(LOG_TAG, "Request bond successful for: " + peripheralUUID);
+            BleLog.d("Request bond successful for: " + peripheralUUID);
             bondRequest = new BondRequest(peripheralUUID, peripheralPin, callback); // request bond success, waiting for boradcast
             return;
         }
@@ -252,7 +345,7 @@ class BleManager extends ReactContextBaseJavaModule {
 
     @ReactMethod
     private void removeBond(String peripheralUUID, Callback callback) {
-        Log.d(LOG_TAG, "Remove bond to: " + peripheralUUID);
+        BleLog.d("Remove bond to: " + peripheralUUID);
 
         Peripheral peripheral = retrieveOrCreatePeripheral(peripheralUUID);
         if (peripheral == null) {
@@ -265,7 +358,7 @@ class BleManager extends ReactContextBaseJavaModule {
                 removeBondRequest = new BondRequest(peripheralUUID, callback);
                 return;
             } catch (Exception e) {
-                Log.d(LOG_TAG, "Error in remove bond: " + peripheralUUID, e);
+                BleLog.d("Error in remove bond: " + peripheralUUID, e);
                 callback.invoke("Remove bond request fail");
             }
         }
@@ -274,7 +367,7 @@ class BleManager extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void connect(String peripheralUUID, Callback callback) {
-        Log.d(LOG_TAG, "Connect to: " + peripheralUUID);
+        BleLog.d("Connect to: " + peripheralUUID);
 
         Peripheral peripheral = retrieveOrCreatePeripheral(peripheralUUID);
         if (peripheral == null) {
@@ -286,7 +379,7 @@ class BleManager extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void disconnect(String peripheralUUID, boolean force, Callback callback) {
-        Log.d(LOG_TAG, "Disconnect from: " + peripheralUUID);
+        BleLog.d("Disconnect from: " + peripheralUUID);
 
         Peripheral peripheral = peripherals.get(peripheralUUID);
         if (peripheral != null) {
@@ -298,7 +391,7 @@ class BleManager extends ReactContextBaseJavaModule {
     @ReactMethod
     public void startNotificationUseBuffer(String deviceUUID, String serviceUUID, String characteristicUUID,
                                            Integer buffer, Callback callback) {
-        Log.d(LOG_TAG, "startNotification");
+        BleLog.d("startNotification");
         if (serviceUUID == null || characteristicUUID == null) {
             callback.invoke("ServiceUUID and characteristicUUID required.");
             return;
@@ -306,14 +399,15 @@ class BleManager extends ReactContextBaseJavaModule {
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral != null) {
             peripheral.registerNotify(UUIDHelper.uuidFromString(serviceUUID),
-                    UUIDHelper.uuidFromString(characteristicUUID), buffer, callback);
+                    UUIDHelper.uuidFromString(characteristicUUID),
+                    buffer > 1 ? new NotifyBufferContainer(buffer) : null, NotifyEncoding.ARRAY, callback);
         } else
             callback.invoke("Peripheral not found");
     }
 
     @ReactMethod
     public void startNotification(String deviceUUID, String serviceUUID, String characteristicUUID, Callback callback) {
-        Log.d(LOG_TAG, "startNotification");
+        BleLog.d("startNotification");
         if (serviceUUID == null || characteristicUUID == null) {
             callback.invoke("ServiceUUID and characteristicUUID required.");
             return;
@@ -321,86 +415,277 @@ class BleManager extends ReactContextBaseJavaModule {
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral != null) {
             peripheral.registerNotify(UUIDHelper.uuidFromString(serviceUUID),
-                    UUIDHelper.uuidFromString(characteristicUUID), 1, callback);
+                    UUIDHelper.uuidFromString(characteristicUUID), null, NotifyEncoding.ARRAY, callback);
         } else
             callback.invoke("Peripheral not found");
     }
 
     @ReactMethod
-    public void stopNotification(String deviceUUID, String serviceUUID, String characteristicUUID, Callback callback) {
-        Log.d(LOG_TAG, "stopNotification");
+    public void startNotificationWithOptions(String deviceUUID, String serviceUUID, String characteristicUUID,
+                                             ReadableMap options, Callback callback) {
+        BleLog.d("startNotificationWithOptions");
         if (serviceUUID == null || characteristicUUID == null) {
             callback.invoke("ServiceUUID and characteristicUUID required.");
             return;
         }
+        int encoding;
+        NotifyBufferContainer buffer = null;
+        try {
+            encoding = NotifyEncoding.fromString(options.hasKey("encoding") ? options.getString("encoding") : null);
+
+            int delimiter = options.hasKey("delimiter") ? options.getInt("delimiter") : NotifyBufferContainer.NO_DELIMITER;
+            int lengthPrefixSize = options.hasKey("lengthPrefixSize") ? options.getInt("lengthPrefixSize") : 0;
+            int bufferTimeout = options.hasKey("bufferTimeout") ? options.getInt("bufferTimeout") : 0;
+            int bufferSize = options.hasKey("bufferSize") ? options.getInt("bufferSize") : 0;
+            boolean framed = delimiter != NotifyBufferContainer.NO_DELIMITER || lengthPrefixSize > 0;
+            if (framed && bufferSize == 0) {
+                bufferSize = DEFAULT_FRAME_BUFFER_SIZE;
+            }
+            if (bufferSize > 1 || framed) {
+                buffer = new NotifyBufferContainer(bufferSize, delimiter, lengthPrefixSize, bufferTimeout);
+            }
+        } catch (IllegalArgumentException e) {
+            callback.invoke(e.getMessage());
+            return;
+        }
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral != null) {
-            peripheral.removeNotify(UUIDHelper.uuidFromString(serviceUUID),
-                    UUIDHelper.uuidFromString(characteristicUUID), callback);
+            peripheral.registerNotify(UUIDHelper.uuidFromString(serviceUUID),
+                    UUIDHelper.uuidFromString(characteristicUUID), buffer, encoding, callback);
         } else
             callback.invoke("Peripheral not found");
     }
 
     @ReactMethod
-    public void write(String deviceUUID, String serviceUUID, String characteristicUUID, ReadableArray message,
-                      Integer maxByteSize, Callback callback) {
-        Log.d(LOG_TAG, "Write to: " + deviceUUID);
+    public void startNotificationMany(String deviceUUID, ReadableArray operations, Callback callback) {
+        BleLog.d("startNotificationMany");
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral == null) {
+            callback.invoke("Peripheral not found", null);
+            return;
+        }
+        GattBatch batch = new GattBatch(callback);
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                ReadableMap operation = operations.getMap(i);
+                batch.add(operationUUID(operation, "service"), operationUUID(operation, "characteristic"));
+            }
+        } catch (IllegalArgumentException e) {
+            callback.invoke(e.getMessage(), null);
+            return;
+        }
+        if (batch.isEmpty()) {
+            callback.invoke(null, Arguments.createArray());
+            return;
+        }
+        peripheral.registerNotifyMany(batch);
+    }
+
+    @ReactMethod
+    public void stopNotification(String deviceUUID, String serviceUUID, String characteristicUUID, Callback callback) {
+        BleLog.d("stopNotification");
         if (serviceUUID == null || characteristicUUID == null) {
             callback.invoke("ServiceUUID and characteristicUUID required.");
             return;
         }
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral != null) {
-            byte[] decoded = new byte[message.size()];
-            for (int i = 0; i < message.size(); i++) {
-                decoded[i] = new Integer(message.getInt(i)).byteValue();
-            }
-            Log.d(LOG_TAG, "Message(" + decoded.length + "): " + bytesToHex(decoded));
-            peripheral.write(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID),
-                    decoded, maxByteSize, null, callback, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            peripheral.removeNotify(UUIDHelper.uuidFromString(serviceUUID),
+                    UUIDHelper.uuidFromString(characteristicUUID), callback);
         } else
             callback.invoke("Peripheral not found");
     }
 
+    @ReactMethod
+    public void write(String deviceUUID, String serviceUUID, String characteristicUUID, ReadableArray message,
+                      Integer maxByteSize, @Nullable String priority, Callback callback) {
+        if (BleLog.isDebugEnabled()) {
+            BleLog.d("Write to: " + deviceUUID);
+        }
+        write(deviceUUID, serviceUUID, characteristicUUID, BytesHelper.fromArray(message), maxByteSize, null, priority, callback,
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+    }
+
+    // Same as write, the data is decoded from Base64 straight into the byte array
+    @ReactMethod
+    public void writeBase64(String deviceUUID, String serviceUUID, String characteristicUUID, String data,
+                            Integer maxByteSize, @Nullable String priority, Callback callback) {
+        if (BleLog.isDebugEnabled()) {
+            BleLog.d("Write base64 to: " + deviceUUID);
+        }
+        byte[] decoded = decodeBase64(data, callback);
+        if (decoded != null) {
+            write(deviceUUID, serviceUUID, characteristicUUID, decoded, maxByteSize, null, priority, callback,
+                    BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        }
+    }
+
     @ReactMethod
     public void writeWithoutResponse(String deviceUUID, String serviceUUID, String characteristicUUID,
-                                     ReadableArray message, Integer maxByteSize, Integer queueSleepTime, Callback callback) {
-        Log.d(LOG_TAG, "Write without response to: " + deviceUUID);
+                                     ReadableArray message, Integer maxByteSize, Integer queueSleepTime,
+                                     @Nullable String priority, Callback callback) {
+        if (BleLog.isDebugEnabled()) {
+            BleLog.d("Write without response to: " + deviceUUID);
+        }
+        write(deviceUUID, serviceUUID, characteristicUUID, BytesHelper.fromArray(message), maxByteSize, queueSleepTime, priority,
+                callback, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+    }
+
+    @ReactMethod
+    public void writeWithoutResponseBase64(String deviceUUID, String serviceUUID, String characteristicUUID,
+                                           String data, Integer maxByteSize, Integer queueSleepTime,
+                                           @Nullable String priority, Callback callback) {
+        if (BleLog.isDebugEnabled()) {
+            BleLog.d("Write base64 without response to: " + deviceUUID);
+        }
+        byte[] decoded = decodeBase64(data, callback);
+        if (decoded != null) {
+            write(deviceUUID, serviceUUID, characteristicUUID, decoded, maxByteSize, queueSleepTime, priority,
+                    callback, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        }
+    }
+
+    private void write(String deviceUUID, String serviceUUID, String characteristicUUID, byte[] data,
+                       Integer maxByteSize, @Nullable Integer queueSleepTime, @Nullable String priority,
+                       Callback callback, int writeType) {
         if (serviceUUID == null || characteristicUUID == null) {
             callback.invoke("ServiceUUID and characteristicUUID required.");
             return;
         }
+        int commandPriority;
+        try {
+            commandPriority = GattCommand.priorityFromString(priority);
+        } catch (IllegalArgumentException e) {
+            callback.invoke(e.getMessage());
+            return;
+        }
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral != null) {
-            byte[] decoded = new byte[message.size()];
-            for (int i = 0; i < message.size(); i++) {
-                decoded[i] = new Integer(message.getInt(i)).byteValue();
+            if (BleLog.isDebugEnabled()) {
+                BleLog.d("Message(" + data.length + "): " + bytesToHex(data));
             }
-            Log.d(LOG_TAG, "Message(" + decoded.length + "): " + bytesToHex(decoded));
             peripheral.write(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID),
-                    decoded, maxByteSize, queueSleepTime, callback, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+                    data, maxByteSize, queueSleepTime, commandPriority, callback, writeType);
         } else
             callback.invoke("Peripheral not found");
     }
 
+    // Reports an invalid string to the callback and returns null
+    @Nullable
+    private static byte[] decodeBase64(@Nullable String data, Callback callback) {
+        if (data == null) {
+            callback.invoke("Data required.");
+            return null;
+        }
+        try {
+            // Base64.decode skips characters outside the alphabet, check them first
+            BytesHelper.checkBase64(data);
+            return Base64.decode(data, Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            callback.invoke("Invalid base64 data: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @ReactMethod
+    public void writeMany(String deviceUUID, ReadableArray operations, Callback callback) {
+        BleLog.d("Write many to: " + deviceUUID);
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral == null) {
+            callback.invoke("Peripheral not found", null);
+            return;
+        }
+        GattBatch batch = new GattBatch(callback);
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                ReadableMap operation = operations.getMap(i);
+                UUID serviceUUID = operationUUID(operation, "service");
+                UUID characteristicUUID = operationUUID(operation, "characteristic");
+                if (!operation.hasKey("data") || operation.isNull("data")) {
+                    throw new IllegalArgumentException("Every write needs data");
+                }
+                byte[] decoded = BytesHelper.fromArray(operation.getArray("data"));
+                int maxByteSize = operation.hasKey("maxByteSize") ? operation.getInt("maxByteSize") : 20;
+                if (maxByteSize < 1) {
+                    throw new IllegalArgumentException("maxByteSize must be greater than 0");
+                }
+                boolean withoutResponse = operation.hasKey("withoutResponse") && operation.getBoolean("withoutResponse");
+                batch.add(serviceUUID, characteristicUUID, decoded, maxByteSize, withoutResponse ? 10 : 0,
+                        withoutResponse ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                                : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            }
+        } catch (IllegalArgumentException e) {
+            callback.invoke(e.getMessage(), null);
+            return;
+        }
+        if (batch.isEmpty()) {
+            callback.invoke(null, Arguments.createArray());
+            return;
+        }
+        peripheral.writeMany(batch);
+    }
+
     @ReactMethod
-    public void read(String deviceUUID, String serviceUUID, String characteristicUUID, Callback callback) {
-        Log.d(LOG_TAG, "Read from: " + deviceUUID);
+    public void read(String deviceUUID, String serviceUUID, String characteristicUUID, @Nullable String priority,
+                     Callback callback) {
+        if (BleLog.isDebugEnabled()) {
+            BleLog.d("Read from: " + deviceUUID);
+        }
         if (serviceUUID == null || characteristicUUID == null) {
             callback.invoke("ServiceUUID and characteristicUUID required.");
             return;
         }
+        int commandPriority;
+        try {
+            commandPriority = GattCommand.priorityFromString(priority);
+        } catch (IllegalArgumentException e) {
+            callback.invoke(e.getMessage(), null);
+            return;
+        }
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral != null) {
             peripheral.read(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID),
-                    callback);
+                    commandPriority, callback);
         } else
             callback.invoke("Peripheral not found", null);
     }
 
+    @ReactMethod
+    public void readMany(String deviceUUID, ReadableArray operations, Callback callback) {
+        BleLog.d("Read many from: " + deviceUUID);
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral == null) {
+            callback.invoke("Peripheral not found", null);
+            return;
+        }
+        GattBatch batch = new GattBatch(callback);
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                ReadableMap operation = operations.getMap(i);
+                batch.add(operationUUID(operation, "service"), operationUUID(operation, "characteristic"));
+            }
+        } catch (IllegalArgumentException e) {
+            callback.invoke(e.getMessage(), null);
+            return;
+        }
+        if (batch.isEmpty()) {
+            callback.invoke(null, Arguments.createArray());
+            return;
+        }
+        peripheral.readMany(batch);
+    }
+
+    // Validates one (service, characteristic) operation of the batched methods
+    private static UUID operationUUID(@Nullable ReadableMap operation, String key) {
+        if (operation == null || !operation.hasKey(key) || operation.isNull(key)) {
+            throw new IllegalArgumentException("Every operation needs a " + key + " UUID");
+        }
+        return UUIDHelper.uuidFromString(operation.getString(key));
+    }
+
     @ReactMethod
     public void readDescriptor(String deviceUUID, String serviceUUID, String characteristicUUID, String descriptorUUID, Callback callback) {
-        Log.d(LOG_TAG, "Read descriptor from: " + deviceUUID);
+        BleLog.d("Read descriptor from: " + deviceUUID);
         if (serviceUUID == null || characteristicUUID == null || descriptorUUID == null) {
             callback.invoke("ServiceUUID, CharacteristicUUID and descriptorUUID required.", null);
             return;
@@ -409,6 +694,7 @@ class BleManager extends ReactContextBaseJavaModule {
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral == null) {
             callback.invoke("Peripheral not found", null);
+            return;
         }
 
         peripheral.readDescriptor(
@@ -419,18 +705,20 @@ class BleManager extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void retrieveServices(String deviceUUID, ReadableArray services, Callback callback) {
-        Log.d(LOG_TAG, "Retrieve services from: " + deviceUUID);
+    public void retrieveServices(String deviceUUID, ReadableArray services, @Nullable ReadableMap options,
+                                 Callback callback) {
+        BleLog.d("Retrieve services from: " + deviceUUID);
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral != null) {
-            peripheral.retrieveServices(callback);
+            boolean compact = options != null && options.hasKey("compact") && options.getBoolean("compact");
+            peripheral.retrieveServices(compact, callback);
         } else
             callback.invoke("Peripheral not found", null);
     }
 
     @ReactMethod
     public void refreshCache(String deviceUUID, Callback callback) {
-        Log.d(LOG_TAG, "Refershing cache for: " + deviceUUID);
+        BleLog.d("Refershing cache for: " + deviceUUID);
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral != null) {
             peripheral.refreshCache(callback);
@@ -439,29 +727,35 @@ class BleManager extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void readRSSI(String deviceUUID, Callback callback) {
-        Log.d(LOG_TAG, "Read RSSI from: " + deviceUUID);
+    public void readRSSI(String deviceUUID, @Nullable String priority, Callback callback) {
+        if (BleLog.isDebugEnabled()) {
+            BleLog.d("Read RSSI from: " + deviceUUID);
+        }
+        int commandPriority;
+        try {
+            commandPriority = GattCommand.priorityFromString(priority);
+        } catch (IllegalArgumentException e) {
+            callback.invoke(e.getMessage(), null);
+            return;
+        }
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral != null) {
-            peripheral.readRSSI(callback);
+            peripheral.readRSSI(commandPriority, callback);
         } else
             callback.invoke("Peripheral not found", null);
     }
 
     private Peripheral savePeripheral(BluetoothDevice device) {
-        String address = device.getAddress();
-        synchronized (peripherals) {
-            if (!peripherals.containsKey(address)) {
-                Peripheral peripheral;
-                if (Build.VERSION.SDK_INT >= LOLLIPOP && !forceLegacy) {
-                    peripheral = new LollipopPeripheral(device, reactContext);
-                } else {
-                    peripheral = new Peripheral(device, reactContext);
-                }
-                peripherals.put(device.getAddress(), peripheral);
-            }
+        Peripheral peripheral = peripherals.get(device.getAddress());
+        if (peripheral != null) {
+            return peripheral;
         }
-        return peripherals.get(address);
+        if (Build.VERSION.SDK_INT >= LOLLIPOP && !forceLegacy) {
+            peripheral = new LollipopPeripheral(device, this);
+        } else {
+            peripheral = new Peripheral(device, this);
+        }
+        return peripherals.putIfAbsent(peripheral);
     }
 
     public Peripheral getPeripheral(BluetoothDevice device) {
@@ -469,16 +763,14 @@ class BleManager extends ReactContextBaseJavaModule {
         return peripherals.get(address);
     }
 
+    // Keeps a peripheral already known for the address, e.g. added by connect, and returns the one to use
     public Peripheral savePeripheral(Peripheral peripheral) {
-        synchronized (peripherals) {
-            peripherals.put(peripheral.getDevice().getAddress(), peripheral);
-        }
-        return peripheral;
+        return peripherals.putIfAbsent(peripheral);
     }
 
     @ReactMethod
     public void checkState(Callback callback) {
-        Log.d(LOG_TAG, "checkState");
+        BleLog.d("checkState");
 
         BluetoothAdapter adapter = getBluetoothAdapter();
         String state = "off";
@@ -507,7 +799,7 @@ class BleManager extends ReactContextBaseJavaModule {
 
         WritableMap map = Arguments.createMap();
         map.putString("state", state);
-        Log.d(LOG_TAG, "state:" + state);
+        BleLog.d("state:" + state);
         sendEvent("BleManagerDidUpdateState", map);
         callback.invoke(state);
     }
@@ -521,7 +813,7 @@ class BleManager extends ReactContextBaseJavaModule {
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            Log.d(LOG_TAG, "onReceive");
+            BleLog.d("onReceive");
             final String action = intent.getAction();
 
             if (action.equals(BluetoothAdapter.ACTION_STATE_CHANGED)) {
@@ -551,7 +843,7 @@ class BleManager extends ReactContextBaseJavaModule {
 
                 WritableMap map = Arguments.createMap();
                 map.putString("state", stringState);
-                Log.d(LOG_TAG, "state: " + stringState);
+                BleLog.d("state: " + stringState);
                 sendEvent("BleManagerDidUpdateState", map);
 
             } else if (action.equals(BluetoothDevice.ACTION_BOND_STATE_CHANGED)) {
@@ -572,7 +864,7 @@ class BleManager extends ReactContextBaseJavaModule {
                         bondStateStr = "BOND_NONE";
                         break;
                 }
-                Log.d(LOG_TAG, "bond state: " + bondStateStr);
+                BleLog.d("bond state: " + bondStateStr);
 
                 if (bondRequest != null && bondRequest.uuid.equals(device.getAddress())) {
                     if (bondState == BluetoothDevice.BOND_BONDED) {
@@ -587,9 +879,9 @@ class BleManager extends ReactContextBaseJavaModule {
                 if (bondState == BluetoothDevice.BOND_BONDED) {
                     Peripheral peripheral;
                     if (Build.VERSION.SDK_INT >= LOLLIPOP && !forceLegacy) {
-                        peripheral = new LollipopPeripheral(device, reactContext);
+                        peripheral = new LollipopPeripheral(device, BleManager.this);
                     } else {
-                        peripheral = new Peripheral(device, reactContext);
+                        peripheral = new Peripheral(device, BleManager.this);
                     }
                     WritableMap map = peripheral.asWritableMap();
                     sendEvent("BleManagerPeripheralDidBond", map);
@@ -612,46 +904,93 @@ class BleManager extends ReactContextBaseJavaModule {
     };
 
     private void clearPeripherals() {
-        if (!peripherals.isEmpty()) {
-            synchronized (peripherals) {
-                peripherals.clear();
-            }
-        }
+        peripherals.clear();
     }
 
     private void disconnectPeripherals() {
-        if (!peripherals.isEmpty()) {
-            synchronized (peripherals) {
-                for (Peripheral peripheral : peripherals.values()) {
-                    if (peripheral.isConnected()) {
-                        peripheral.disconnect(null, true);
-                    }
-                }
+        for (Peripheral peripheral : peripherals.values()) {
+            if (peripheral.isConnected()) {
+                peripheral.disconnect(null, true);
             }
         }
     }
 
     @ReactMethod
     public void getDiscoveredPeripherals(Callback callback) {
-        Log.d(LOG_TAG, "Get discovered peripherals");
+        BleLog.d("Get discovered peripherals");
         WritableArray map = Arguments.createArray();
-        synchronized (peripherals) {
-            for (Map.Entry<String, Peripheral> entry : peripherals.entrySet()) {
-                Peripheral peripheral = entry.getValue();
-                WritableMap jsonBundle = peripheral.asWritableMap();
-                map.pushMap(jsonBundle);
+        for (Peripheral peripheral : peripherals.values()) {
+            WritableMap jsonBundle = peripheral.asWritableMap();
+            map.pushMap(jsonBundle);
+        }
+        callback.invoke(null, map);
+    }
+
+    @ReactMethod
+    public void getDiscoveredPeripheralsSince(double sequence, Callback callback) {
+        BleLog.d("Get discovered peripherals since " + (long) sequence);
+        PeripheralRegistry.Changes changes = peripherals.changesSince((long) sequence);
+        WritableArray changed = Arguments.createArray();
+        for (Peripheral peripheral : changes.peripherals) {
+            changed.pushMap(peripheral.asWritableMap());
+        }
+        WritableArray removed = Arguments.createArray();
+        for (String address : changes.removed) {
+            removed.pushString(address);
+        }
+        WritableMap map = Arguments.createMap();
+        map.putDouble("sequence", changes.sequence);
+        map.putBoolean("reset", changes.reset);
+        map.putArray("peripherals", changed);
+        map.putArray("removed", removed);
+        callback.invoke(null, map);
+    }
+
+    @ReactMethod
+    public void getMetrics(Callback callback) {
+        WritableMap map = metrics.toWritableMap();
+        map.putDouble("elapsed", metrics.getElapsedSeconds());
+        map.putDouble("peripheralCapacityEvictions", peripherals.getCapacityEvictions());
+        map.putDouble("peripheralTtlEvictions", peripherals.getTtlEvictions());
+
+        WritableMap perPeripheral = Arguments.createMap();
+        double elapsed = metrics.getElapsedSeconds();
+        for (Peripheral peripheral : peripherals.values()) {
+            if (peripheral.isConnected() || peripheral.isConnecting()) {
+                perPeripheral.putMap(peripheral.getDevice().getAddress(),
+                        peripheral.getMetrics().toWritableMap(elapsed));
             }
         }
+        map.putMap("peripherals", perPeripheral);
         callback.invoke(null, map);
     }
 
+    @ReactMethod
+    public void resetMetrics(Callback callback) {
+        metrics.reset();
+        for (Peripheral peripheral : peripherals.values()) {
+            peripheral.getMetrics().reset();
+        }
+        callback.invoke();
+    }
+
+    @ReactMethod
+    public void getTrace(Callback callback) {
+        GattTrace trace = BleLog.getTrace();
+        if (trace == null) {
+            callback.invoke("Tracing is disabled, set traceBufferSize in start()");
+            return;
+        }
+        callback.invoke(null, trace.toWritableArray());
+    }
+
     @ReactMethod
     public void getConnectedPeripherals(ReadableArray serviceUUIDs, Callback callback) {
-        Log.d(LOG_TAG, "Get connected peripherals");
+        BleLog.d("Get connected peripherals");
         WritableArray map = Arguments.createArray();
 
         if (getBluetoothAdapter() == null) {
-            Log.d(LOG_TAG, "No bluetooth support");
+            BleLog.d("No bluetooth support");
             callback.invoke("No bluetooth support");
             return;
         }
@@ -667,15 +1006,15 @@ class BleManager extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void getBondedPeripherals(Callback callback) {
-        Log.d(LOG_TAG, "Get bonded peripherals");
+        BleLog.d("Get bonded peripherals");
         WritableArray map = Arguments.createArray();
         Set<BluetoothDevice> deviceSet = getBluetoothAdapter().getBondedDevices();
         for (BluetoothDevice device : deviceSet) {
             Peripheral peripheral;
             if (Build.VERSION.SDK_INT >= LOLLIPOP && !forceLegacy) {
-                peripheral = new LollipopPeripheral(device, reactContext);
+                peripheral = new LollipopPeripheral(device, this);
             } else {
-                peripheral = new Peripheral(device, reactContext);
+                peripheral = new Peripheral(device, this);
             }
             WritableMap jsonBundle = peripheral.asWritableMap();
             map.pushMap(jsonBundle);
@@ -685,16 +1024,14 @@ class BleManager extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void removePeripheral(String deviceUUID, Callback callback) {
-        Log.d(LOG_TAG, "Removing from list: " + deviceUUID);
+        BleLog.d("Removing from list: " + deviceUUID);
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral != null) {
-            synchronized (peripherals) {
-                if (peripheral.isConnected()) {
-                    callback.invoke("Peripheral can not be removed while connected");
-                } else {
-                    peripherals.remove(deviceUUID);
-                    callback.invoke();
-                }
+            if (peripheral.isConnected()) {
+                callback.invoke("Peripheral can not be removed while connected");
+            } else {
+                peripherals.remove(deviceUUID);
+                callback.invoke();
             }
         } else
             callback.invoke("Peripheral not found");
@@ -702,7 +1039,7 @@ class BleManager extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void requestConnectionPriority(String deviceUUID, int connectionPriority, Callback callback) {
-        Log.d(LOG_TAG, "Request connection priority of " + connectionPriority + " from: " + deviceUUID);
+        BleLog.d("Request connection priority of " + connectionPriority + " from: " + deviceUUID);
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral != null) {
             peripheral.requestConnectionPriority(connectionPriority, callback);
@@ -713,7 +1050,7 @@ class BleManager extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void requestMTU(String deviceUUID, int mtu, Callback callback) {
-        Log.d(LOG_TAG, "Request MTU of " + mtu + " bytes from: " + deviceUUID);
+        BleLog.d("Request MTU of " + mtu + " bytes from: " + deviceUUID);
         Peripheral peripheral = peripherals.get(deviceUUID);
         if (peripheral != null) {
             peripheral.requestMTU(mtu, callback);
@@ -722,42 +1059,37 @@ class BleManager extends ReactContextBaseJavaModule {
         }
     }
 
-    private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
-
     public static String bytesToHex(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 2];
-        for (int j = 0; j < bytes.length; j++) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
-        }
-        return new String(hexChars);
+        return BytesHelper.toHex(bytes, 0, bytes.length);
+    }
+
+    public static String bytesToHex(byte[] bytes, int offset, int length) {
+        return BytesHelper.toHex(bytes, offset, length);
     }
 
     public static WritableArray bytesToWritableArray(byte[] bytes) {
-        WritableArray value = Arguments.createArray();
-        for (int i = 0; i < bytes.length; i++)
-            value.pushInt((bytes[i] & 0xFF));
-        return value;
+        return BytesHelper.toWritableArray(bytes, 0, bytes.length);
+    }
+
+    public static WritableArray bytesToWritableArray(byte[] bytes, int offset, int length) {
+        return BytesHelper.toWritableArray(bytes, offset, length);
     }
 
 
     private Peripheral retrieveOrCreatePeripheral(String peripheralUUID) {
         Peripheral peripheral = peripherals.get(peripheralUUID);
         if (peripheral == null) {
-            synchronized (peripherals) {
-                if (peripheralUUID != null) {
-                    peripheralUUID = peripheralUUID.toUpperCase();
-                }
-                if (BluetoothAdapter.checkBluetoothAddress(peripheralUUID)) {
-                    BluetoothDevice device = bluetoothAdapter.getRemoteDevice(peripheralUUID);
-                    if (Build.VERSION.SDK_INT >= LOLLIPOP && !forceLegacy) {
-                        peripheral = new LollipopPeripheral(device, reactContext);
-                    } else {
-                        peripheral = new Peripheral(device, reactContext);
-                    }
-                    peripherals.put(peripheralUUID, peripheral);
+            if (peripheralUUID != null) {
+                peripheralUUID = peripheralUUID.toUpperCase();
+            }
+            if (BluetoothAdapter.checkBluetoothAddress(peripheralUUID)) {
+                BluetoothDevice device = bluetoothAdapter.getRemoteDevice(peripheralUUID);
+                if (Build.VERSION.SDK_INT >= LOLLIPOP && !forceLegacy) {
+                    peripheral = new LollipopPeripheral(device, this);
+                } else {
+                    peripheral = new Peripheral(device, this);
                 }
+                peripheral = peripherals.putIfAbsent(peripheral);
             }
         }
         return peripheral;
@@ -780,13 +1112,21 @@ class BleManager extends ReactContextBaseJavaModule {
             // while we have lost the gatt instance
             disconnectPeripherals();
         } catch (Exception e) {
-            Log.d(LOG_TAG, "Could not disconnect peripherals", e);
+            BleLog.d("Could not disconnect peripherals", e);
         }
 
+        if (notificationBatcher != null) {
+            notificationBatcher.stop();
+            notificationBatcher = null;
+        }
+
+        gattThreadPool.shutdown();
+
         if (scanManager != null) {
             // Stop scan in case one was started to stop events from being emitted after destroy
             scanManager.stopScan(args -> {
             });
+            scanManager.shutdown();
         }
     }
 }
@@ -0,0 +1,70 @@
+package it.innove;
+
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Module wide counters returned by getMetrics: the GATT totals of every peripheral, scan results
+ * and events sent over the bridge. Rates are computed over the time since the last reset.
+ */
+public class BleMetrics {
+
+    private final GattMetrics gatt = new GattMetrics(null);
+    private final AtomicLong eventsEmitted = new AtomicLong();
+    private final AtomicLong scanResults = new AtomicLong();
+    private final AtomicLong scanResultsDropped = new AtomicLong();
+    private final AtomicLong scanResultsReported = new AtomicLong();
+    private volatile long resetAt = SystemClock.elapsedRealtime();
+
+    public GattMetrics getGatt() {
+        return gatt;
+    }
+
+    void onEventEmitted() {
+        eventsEmitted.incrementAndGet();
+    }
+
+    // A result the scan callback received
+    void onScanResult() {
+        scanResults.incrementAndGet();
+    }
+
+    // A result dropped because the scan queue was full
+    void onScanResultDropped() {
+        scanResultsDropped.incrementAndGet();
+    }
+
+    // A peripheral that passed the ScanThrottle and was sent to JS
+    void onScanResultReported() {
+        scanResultsReported.incrementAndGet();
+    }
+
+    public double getElapsedSeconds() {
+        return (SystemClock.elapsedRealtime() - resetAt) / 1000.0;
+    }
+
+    public void reset() {
+        gatt.reset();
+        eventsEmitted.set(0);
+        scanResults.set(0);
+        scanResultsDropped.set(0);
+        scanResultsReported.set(0);
+        resetAt = SystemClock.elapsedRealtime();
+    }
+
+    public WritableMap toWritableMap() {
+        double elapsed = getElapsedSeconds();
+        WritableMap map = gatt.toWritableMap(elapsed);
+        map.putDouble("eventsEmitted", eventsEmitted.get());
+        map.putDouble("eventsPerSecond", elapsed > 0 ? eventsEmitted.get() / elapsed : 0);
+        map.putDouble("scanResults", scanResults.get());
+        map.putDouble("scanResultsPerSecond", elapsed > 0 ? scanResults.get() / elapsed : 0);
+        map.putDouble("scanResultsDropped", scanResultsDropped.get());
+        map.putDouble("scanResultsReported", scanResultsReported.get());
+        return map;
+    }
+}
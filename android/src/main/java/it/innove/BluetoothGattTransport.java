@@ -0,0 +1,133 @@
+package it.innove;
+
+import android.app.Activity;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * GattTransport backed by the Android BluetoothGatt.
+ */
+public class BluetoothGattTransport implements GattTransport {
+
+    public static final Factory FACTORY = BluetoothGattTransport::connect;
+
+    private final BluetoothGatt gatt;
+
+    public BluetoothGattTransport(BluetoothGatt gatt) {
+        this.gatt = gatt;
+    }
+
+    @Nullable
+    private static GattTransport connect(Peripheral peripheral, Activity activity, BluetoothGattCallback callback,
+                                         Handler handler) {
+        BluetoothDevice device = peripheral.getDevice();
+        BluetoothGatt gatt;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && handler.getLooper() != Looper.getMainLooper()) {
+            // deliver the GATT callbacks straight on the peripheral thread
+            gatt = device.connectGatt(activity, false, callback, BluetoothDevice.TRANSPORT_LE,
+                    BluetoothDevice.PHY_LE_1M_MASK, handler);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            BleLog.d(" Is Or Greater than M $mBluetoothDevice");
+            gatt = device.connectGatt(activity, false, callback, BluetoothDevice.TRANSPORT_LE);
+        } else {
+            BleLog.d(" Less than M");
+            try {
+                BleLog.d(" Trying TRANPORT LE with reflection");
+                Method m = device.getClass().getDeclaredMethod("connectGatt", Context.class, Boolean.class,
+                        BluetoothGattCallback.class, Integer.class);
+                m.setAccessible(true);
+                Integer transport = device.getClass().getDeclaredField("TRANSPORT_LE").getInt(null);
+                gatt = (BluetoothGatt) m.invoke(device, activity, false, callback, transport);
+            } catch (Exception e) {
+                e.printStackTrace();
+                BleLog.d(" Catch to call normal connection");
+                gatt = device.connectGatt(activity, false, callback);
+            }
+        }
+        return gatt != null ? new BluetoothGattTransport(gatt) : null;
+    }
+
+    public boolean wraps(BluetoothGatt gatt) {
+        return this.gatt == gatt;
+    }
+
+    @Override
+    public List<BluetoothGattService> getServices() {
+        return gatt.getServices();
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return gatt.discoverServices();
+    }
+
+    @Override
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return gatt.readCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return gatt.writeCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return gatt.setCharacteristicNotification(characteristic, enable);
+    }
+
+    @Override
+    public boolean readDescriptor(BluetoothGattDescriptor descriptor) {
+        return gatt.readDescriptor(descriptor);
+    }
+
+    @Override
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        return gatt.writeDescriptor(descriptor);
+    }
+
+    @Override
+    public boolean readRemoteRssi() {
+        return gatt.readRemoteRssi();
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        return gatt.requestMtu(mtu);
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int connectionPriority) {
+        return gatt.requestConnectionPriority(connectionPriority);
+    }
+
+    // BluetoothGatt.refresh is hidden, it can only be reached with reflection
+    @Override
+    public boolean refresh() throws Exception {
+        Method localMethod = gatt.getClass().getMethod("refresh", new Class[0]);
+        return ((Boolean) localMethod.invoke(gatt, new Object[0])).booleanValue();
+    }
+
+    @Override
+    public void disconnect() {
+        gatt.disconnect();
+    }
+
+    @Override
+    public void close() {
+        gatt.close();
+    }
+}
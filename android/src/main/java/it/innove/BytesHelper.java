@@ -0,0 +1,59 @@
+package it.innove;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableArray;
+
+/**
+ * Conversions between byte arrays and the forms they cross the bridge in.
+ * Kept free of Android types so the benchmark module can run them on a plain JVM.
+ */
+public class BytesHelper {
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    public static String toHex(byte[] bytes, int offset, int length) {
+        char[] hexChars = new char[length * 2];
+        for (int j = 0; j < length; j++) {
+            int v = bytes[offset + j] & 0xFF;
+            hexChars[j * 2] = HEX_DIGITS[v >>> 4];
+            hexChars[j * 2 + 1] = HEX_DIGITS[v & 0x0F];
+        }
+        return new String(hexChars);
+    }
+
+    public static WritableArray toWritableArray(byte[] bytes, int offset, int length) {
+        WritableArray value = Arguments.createArray();
+        for (int i = offset; i < offset + length; i++)
+            value.pushInt((bytes[i] & 0xFF));
+        return value;
+    }
+
+    // Accepts standard padded Base64 only, as btoa() or Buffer.toString('base64') produce it. Anything else,
+    // whitespace included, is rejected the same way by the iOS module.
+    public static void checkBase64(String data) {
+        int length = data.length();
+        if (length % 4 != 0) {
+            throw new IllegalArgumentException("length is not a multiple of 4");
+        }
+        for (int i = 0; i < length; i++) {
+            char c = data.charAt(i);
+            if (c == '=') {
+                if (i < length - 2 || data.charAt(length - 1) != '=') {
+                    throw new IllegalArgumentException("unexpected padding at " + i);
+                }
+            } else if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '+' || c == '/')) {
+                throw new IllegalArgumentException("invalid character at " + i);
+            }
+        }
+    }
+
+    // A number[] sent from JS, each number is truncated to its low byte
+    public static byte[] fromArray(ReadableArray array) {
+        byte[] bytes = new byte[array.size()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) array.getInt(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,82 @@
+package it.innove;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Resolves the characteristics of a connected peripheral without walking its services on every operation.
+ *
+ * Some peripherals reuse UUIDs for several characteristics, so a characteristic is looked up by service UUID,
+ * characteristic UUID and property: for every property bit the index keeps the first characteristic having it,
+ * in discovery order, plus the first characteristic with the UUID whatever its properties.
+ * Like BluetoothGatt.getService(), only the first service with a given UUID is indexed.
+ *
+ * The index is built after each service discovery and dropped when the services may have changed.
+ */
+public class CharacteristicIndex {
+
+    private static class Entry {
+        final BluetoothGattCharacteristic first;
+        final BluetoothGattCharacteristic[] byProperty = new BluetoothGattCharacteristic[8];
+
+        Entry(BluetoothGattCharacteristic first) {
+            this.first = first;
+        }
+    }
+
+    private final Map<UUID, Map<UUID, Entry>> services = new HashMap<>();
+
+    public CharacteristicIndex(List<BluetoothGattService> gattServices) {
+        for (BluetoothGattService service : gattServices) {
+            if (services.containsKey(service.getUuid())) {
+                continue;
+            }
+            Map<UUID, Entry> characteristics = new HashMap<>();
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                Entry entry = characteristics.get(characteristic.getUuid());
+                if (entry == null) {
+                    entry = new Entry(characteristic);
+                    characteristics.put(characteristic.getUuid(), entry);
+                }
+                int properties = characteristic.getProperties();
+                for (int bit = 0; bit < entry.byProperty.length; bit++) {
+                    if ((properties & (1 << bit)) != 0 && entry.byProperty[bit] == null) {
+                        entry.byProperty[bit] = characteristic;
+                    }
+                }
+            }
+            services.put(service.getUuid(), characteristics);
+        }
+    }
+
+    public boolean isEmpty() {
+        return services.isEmpty();
+    }
+
+    // The first characteristic with the UUID having the property, a single PROPERTY_ bit
+    @Nullable
+    public BluetoothGattCharacteristic find(UUID serviceUUID, UUID characteristicUUID, int property) {
+        Entry entry = entry(serviceUUID, characteristicUUID);
+        return entry != null ? entry.byProperty[Integer.numberOfTrailingZeros(property) & 7] : null;
+    }
+
+    // The first characteristic with the UUID, what BluetoothGattService.getCharacteristic() returns
+    @Nullable
+    public BluetoothGattCharacteristic find(UUID serviceUUID, UUID characteristicUUID) {
+        Entry entry = entry(serviceUUID, characteristicUUID);
+        return entry != null ? entry.first : null;
+    }
+
+    @Nullable
+    private Entry entry(UUID serviceUUID, UUID characteristicUUID) {
+        Map<UUID, Entry> characteristics = services.get(serviceUUID);
+        return characteristics != null ? characteristics.get(characteristicUUID) : null;
+    }
+}
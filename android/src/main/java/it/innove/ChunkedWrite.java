@@ -0,0 +1,43 @@
+package it.innove;
+
+import java.util.Arrays;
+
+/**
+ * A characteristic write split in chunks of at most chunkSize bytes.
+ * Chunks are written one at a time by Peripheral, each one after the previous was acknowledged,
+ * so no thread is ever blocked while the payload goes out.
+ */
+public class ChunkedWrite {
+
+    public final int writeType;
+    // delay in ms between two write without response chunks on stacks without flow control
+    public final int chunkInterval;
+
+    private final byte[] data;
+    private final int chunkSize;
+    private int offset = 0;
+    private boolean started = false;
+
+    public ChunkedWrite(byte[] data, int chunkSize, int writeType, int chunkInterval) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be greater than 0");
+        }
+        this.data = data;
+        this.chunkSize = chunkSize;
+        this.writeType = writeType;
+        this.chunkInterval = chunkInterval;
+    }
+
+    public boolean hasNextChunk() {
+        // an empty payload is still written once
+        return offset < data.length || !started;
+    }
+
+    public byte[] nextChunk() {
+        int end = Math.min(offset + chunkSize, data.length);
+        byte[] chunk = offset == 0 && end == data.length ? data : Arrays.copyOfRange(data, offset, end);
+        offset = end;
+        started = true;
+        return chunk;
+    }
+}
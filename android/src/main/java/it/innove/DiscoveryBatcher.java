@@ -0,0 +1,67 @@
+package it.innove;
+
+import android.os.Handler;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the peripherals reported by a scan and emits them as a single BleManagerDiscoverPeripheralBatch
+ * event every flushInterval ms, instead of one BleManagerDiscoverPeripheral event each.
+ * A peripheral reported several times in a window is sent once, with its state at the time of the flush.
+ */
+public class DiscoveryBatcher {
+
+    public static final String EVENT_NAME = "BleManagerDiscoverPeripheralBatch";
+
+    private final BleManager bleManager;
+    private final Handler handler;
+    private final int flushInterval;
+    private final int advertisingFields;
+
+    private final Map<String, Peripheral> pending = new LinkedHashMap<>();
+
+    private final Runnable flushRunnable = this::flush;
+
+    public DiscoveryBatcher(BleManager bleManager, Handler handler, int flushInterval, int advertisingFields) {
+        this.bleManager = bleManager;
+        this.handler = handler;
+        this.flushInterval = flushInterval;
+        this.advertisingFields = advertisingFields;
+    }
+
+    public void add(Peripheral peripheral) {
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                handler.postDelayed(flushRunnable, flushInterval);
+            }
+            pending.put(peripheral.getDevice().getAddress(), peripheral);
+        }
+    }
+
+    public void flush() {
+        List<Peripheral> peripherals;
+        synchronized (pending) {
+            handler.removeCallbacks(flushRunnable);
+            if (pending.isEmpty()) {
+                return;
+            }
+            peripherals = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+
+        WritableArray array = Arguments.createArray();
+        for (Peripheral peripheral : peripherals) {
+            array.pushMap(peripheral.asWritableMap(advertisingFields));
+        }
+        WritableMap map = Arguments.createMap();
+        map.putArray("peripherals", array);
+        bleManager.sendEvent(EVENT_NAME, map);
+    }
+}
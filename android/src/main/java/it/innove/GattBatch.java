@@ -0,0 +1,94 @@
+package it.innove;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The operations of one readMany, writeMany or startNotificationMany call.
+ *
+ * Every operation gets its own command in the queue of the peripheral, the results are collected
+ * here and the callback of the call is invoked once, with all of them in the order of the operations,
+ * after the last one finished. An operation that fails doesn't stop the others.
+ */
+public class GattBatch {
+
+    public static class Operation {
+        public final UUID serviceUUID;
+        public final UUID characteristicUUID;
+        public final byte[] data;
+        public final int maxByteSize;
+        public final int queueSleepTime;
+        public final int writeType;
+        public final Callback callback;
+
+        private Operation(UUID serviceUUID, UUID characteristicUUID, byte[] data, int maxByteSize,
+                          int queueSleepTime, int writeType, Callback callback) {
+            this.serviceUUID = serviceUUID;
+            this.characteristicUUID = characteristicUUID;
+            this.data = data;
+            this.maxByteSize = maxByteSize;
+            this.queueSleepTime = queueSleepTime;
+            this.writeType = writeType;
+            this.callback = callback;
+        }
+    }
+
+    private final Callback callback;
+    private final List<Operation> operations = new ArrayList<>();
+    private final List<WritableMap> results = new ArrayList<>();
+    private final AtomicInteger remaining = new AtomicInteger();
+
+    public GattBatch(Callback callback) {
+        this.callback = callback;
+    }
+
+    public void add(UUID serviceUUID, UUID characteristicUUID) {
+        add(serviceUUID, characteristicUUID, null, 0, 0, 0);
+    }
+
+    // Operations must all be added before the first one is queued
+    public void add(UUID serviceUUID, UUID characteristicUUID, byte[] data, int maxByteSize, int queueSleepTime,
+                    int writeType) {
+        final int index = operations.size();
+        operations.add(new Operation(serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime, writeType,
+                args -> onResult(index, args)));
+        results.add(null);
+        remaining.incrementAndGet();
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    private void onResult(int index, Object... args) {
+        Operation operation = operations.get(index);
+        WritableMap result = Arguments.createMap();
+        result.putString("service", UUIDHelper.uuidToString(operation.serviceUUID));
+        result.putString("characteristic", UUIDHelper.uuidToString(operation.characteristicUUID));
+        if (args.length > 0 && args[0] != null) {
+            result.putString("error", args[0].toString());
+        } else if (args.length > 1 && args[1] instanceof WritableArray) {
+            result.putArray("value", (WritableArray) args[1]);
+        }
+        results.set(index, result);
+
+        if (remaining.decrementAndGet() == 0) {
+            WritableArray array = Arguments.createArray();
+            for (WritableMap map : results) {
+                array.pushMap(map);
+            }
+            callback.invoke(null, array);
+        }
+    }
+}
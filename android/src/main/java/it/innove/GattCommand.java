@@ -0,0 +1,164 @@
+package it.innove;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Callback;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A GATT operation queued by a Peripheral.
+ *
+ * Each command owns the callback of the call that created it, so the outcome of an operation is only
+ * ever reported to that callback, and exactly once: the state moves forward from QUEUED to RUNNING
+ * and then to COMPLETED, FAILED or TIMED_OUT with compare and set, whoever settles the command first wins.
+ * A command still running timeout ms after it started is timed out by the watchdog of the Peripheral.
+ * Once queued, the command reports its queue and completion times to the GattMetrics of its peripheral.
+ */
+public class GattCommand {
+
+    public interface Action {
+        void run(GattCommand command) throws Exception;
+    }
+
+    public static final int READ = 0;
+    public static final int READ_DESCRIPTOR = 1;
+    public static final int WRITE = 2;
+    public static final int REGISTER_NOTIFY = 3;
+    public static final int READ_RSSI = 4;
+    public static final int REFRESH_CACHE = 5;
+    public static final int RETRIEVE_SERVICES = 6;
+    public static final int REQUEST_CONNECTION_PRIORITY = 7;
+    public static final int REQUEST_MTU = 8;
+    public static final int TYPE_COUNT = 9;
+
+    private static final String[] NAMES = {"read", "readDescriptor", "write", "registerNotify", "readRSSI",
+            "refreshCache", "retrieveServices", "requestConnectionPriority", "requestMTU"};
+
+    // lanes of GattCommandQueue, lower runs first
+    public static final int PRIORITY_CONTROL = 0;
+    public static final int PRIORITY_DEFAULT = 1;
+    public static final int PRIORITY_BULK = 2;
+
+    public static final int QUEUED = 0;
+    public static final int RUNNING = 1;
+    public static final int COMPLETED = 2;
+    public static final int FAILED = 3;
+    public static final int TIMED_OUT = 4;
+
+    public final int type;
+    public final int priority;
+    // ms the command may run before it is timed out, 0 to wait forever
+    public final int timeout;
+    private final Action action;
+    private final Callback callback;
+    private final AtomicInteger state = new AtomicInteger(QUEUED);
+    @Nullable
+    private GattMetrics metrics;
+    private long queuedAt;
+    // the characteristic or descriptor the command sent to the stack, answers for another one are stale
+    private volatile Object target;
+
+    public GattCommand(int type, int priority, int timeout, Action action, Callback callback) {
+        this.type = type;
+        this.priority = priority;
+        this.timeout = timeout;
+        this.action = action;
+        this.callback = callback;
+    }
+
+    public static int priorityFromString(String priority) {
+        if (priority == null) {
+            return PRIORITY_DEFAULT;
+        }
+        switch (priority) {
+            case "control":
+                return PRIORITY_CONTROL;
+            case "default":
+                return PRIORITY_DEFAULT;
+            case "bulk":
+                return PRIORITY_BULK;
+            default:
+                throw new IllegalArgumentException("Unknown command priority: " + priority);
+        }
+    }
+
+    public static String getName(int type) {
+        return type >= 0 && type < NAMES.length ? NAMES[type] : "unknown";
+    }
+
+    public String getName() {
+        return getName(type);
+    }
+
+    public int getState() {
+        return state.get();
+    }
+
+    public boolean isDone() {
+        int current = state.get();
+        return current != QUEUED && current != RUNNING;
+    }
+
+    // Called by the peripheral before adding the command to its queue
+    void queued(GattMetrics metrics) {
+        this.metrics = metrics;
+        this.queuedAt = SystemClock.elapsedRealtimeNanos();
+        metrics.onQueued();
+    }
+
+    // Moves the command to RUNNING, false if it was settled while waiting in the queue
+    boolean start() {
+        if (!state.compareAndSet(QUEUED, RUNNING)) {
+            return false;
+        }
+        if (metrics != null) {
+            metrics.onStarted(type, SystemClock.elapsedRealtimeNanos() - queuedAt);
+        }
+        return true;
+    }
+
+    void run() throws Exception {
+        action.run(this);
+    }
+
+    void setTarget(Object target) {
+        this.target = target;
+    }
+
+    boolean targets(Object attribute) {
+        return target == attribute;
+    }
+
+    public boolean complete(Object... args) {
+        return settle(COMPLETED, args);
+    }
+
+    public boolean fail(Object... args) {
+        return settle(FAILED, args);
+    }
+
+    public boolean timeOut(Object... args) {
+        return settle(TIMED_OUT, args);
+    }
+
+    private boolean settle(int newState, Object... args) {
+        int current;
+        do {
+            current = state.get();
+            if (current != QUEUED && current != RUNNING) {
+                return false;
+            }
+        } while (!state.compareAndSet(current, newState));
+
+        if (metrics != null) {
+            metrics.onSettled(type, newState, current == QUEUED, SystemClock.elapsedRealtimeNanos() - queuedAt);
+        }
+        if (callback != null) {
+            callback.invoke(args);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+package it.innove;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The commands of a Peripheral waiting to run, one FIFO lane per priority.
+ *
+ * Commands are taken from the highest priority lane first. So that a steady flow of control commands
+ * can't hold back the rest forever, a lane that has been passed over STARVATION_LIMIT times in a row
+ * gets its next command run before the higher lanes. When several lanes are starved the highest priority
+ * one goes first.
+ *
+ * add(), addAll() and isEmpty() can be called from any thread, poll() must only be called by one thread at a
+ * time. Additions are serialized so the commands of an addAll() are never interleaved with others, poll()
+ * doesn't wait for them.
+ */
+public class GattCommandQueue {
+
+    static final int STARVATION_LIMIT = 8;
+
+    private final Queue<GattCommand>[] lanes;
+    private final int[] passedOver;
+
+    @SuppressWarnings("unchecked")
+    public GattCommandQueue() {
+        lanes = new Queue[GattCommand.PRIORITY_BULK + 1];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ConcurrentLinkedQueue<>();
+        }
+        passedOver = new int[lanes.length];
+    }
+
+    public synchronized void add(GattCommand command) {
+        lanes[command.priority].add(command);
+    }
+
+    // Adds a batch at once, its commands of one priority run one after the other
+    public synchronized void addAll(List<GattCommand> commands) {
+        for (GattCommand command : commands) {
+            lanes[command.priority].add(command);
+        }
+    }
+
+    public GattCommand poll() {
+        int lane = -1;
+        int starved = -1;
+        for (int i = 0; i < lanes.length; i++) {
+            if (lanes[i].isEmpty()) {
+                passedOver[i] = 0;
+                continue;
+            }
+            if (lane == -1) {
+                lane = i;
+            }
+            if (starved == -1 && passedOver[i] >= STARVATION_LIMIT) {
+                starved = i;
+            }
+        }
+        if (lane == -1) {
+            return null;
+        }
+        if (starved != -1) {
+            lane = starved;
+        }
+
+        for (int i = 0; i < lanes.length; i++) {
+            if (i != lane && !lanes[i].isEmpty()) {
+                passedOver[i]++;
+            }
+        }
+        passedOver[lane] = 0;
+        return lanes[lane].poll();
+    }
+
+    public boolean isEmpty() {
+        for (Queue<GattCommand> lane : lanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
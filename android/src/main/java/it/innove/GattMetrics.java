@@ -0,0 +1,146 @@
+package it.innove;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * GATT counters of a peripheral, or of all of them when parent is null: every update of a peripheral
+ * is also applied to its parent, so the totals never need to walk the peripherals.
+ *
+ * Per command type it records the time spent waiting in the queue and the time from queueing to
+ * completion, plus failures and timeouts. Only lock-free primitives are used.
+ */
+public class GattMetrics {
+
+    private static final int TYPES = GattCommand.TYPE_COUNT;
+
+    @Nullable
+    private final GattMetrics parent;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final LatencyHistogram[] queueTime = new LatencyHistogram[TYPES];
+    private final LatencyHistogram[] completionTime = new LatencyHistogram[TYPES];
+    private final AtomicLongArray failures = new AtomicLongArray(TYPES);
+    private final AtomicLongArray timeouts = new AtomicLongArray(TYPES);
+    private final AtomicLong notifications = new AtomicLong();
+    private final AtomicLong notificationBytes = new AtomicLong();
+    private final AtomicLong bufferOverflows = new AtomicLong();
+    private final AtomicLong bufferOverflowBytes = new AtomicLong();
+    private final AtomicLong bufferDroppedBytes = new AtomicLong();
+
+    public GattMetrics(@Nullable GattMetrics parent) {
+        this.parent = parent;
+        for (int i = 0; i < TYPES; i++) {
+            queueTime[i] = new LatencyHistogram();
+            completionTime[i] = new LatencyHistogram();
+        }
+    }
+
+    void onQueued() {
+        queueDepth.incrementAndGet();
+        if (parent != null) {
+            parent.onQueued();
+        }
+    }
+
+    void onStarted(int type, long queuedNanos) {
+        queueDepth.decrementAndGet();
+        queueTime[type].record(queuedNanos);
+        if (parent != null) {
+            parent.onStarted(type, queuedNanos);
+        }
+    }
+
+    // A command settled, wasQueued when it never started
+    void onSettled(int type, int state, boolean wasQueued, long totalNanos) {
+        if (wasQueued) {
+            queueDepth.decrementAndGet();
+        }
+        if (state == GattCommand.COMPLETED) {
+            completionTime[type].record(totalNanos);
+        } else if (state == GattCommand.TIMED_OUT) {
+            timeouts.incrementAndGet(type);
+        } else {
+            failures.incrementAndGet(type);
+        }
+        if (parent != null) {
+            parent.onSettled(type, state, wasQueued, totalNanos);
+        }
+    }
+
+    void onNotification(int length) {
+        notifications.incrementAndGet();
+        notificationBytes.addAndGet(length);
+        if (parent != null) {
+            parent.onNotification(length);
+        }
+    }
+
+    // Notify buffer frames that announced or accumulated more bytes than the buffer holds, and those bytes
+    void onBufferOverflows(int count, int bytes) {
+        bufferOverflows.addAndGet(count);
+        bufferOverflowBytes.addAndGet(bytes);
+        if (parent != null) {
+            parent.onBufferOverflows(count, bytes);
+        }
+    }
+
+    // Bytes of a partial frame discarded when a buffered notification stopped
+    void onBufferDropped(int bytes) {
+        bufferDroppedBytes.addAndGet(bytes);
+        if (parent != null) {
+            parent.onBufferDropped(bytes);
+        }
+    }
+
+    // Queue depth is a gauge and is kept
+    public void reset() {
+        for (int i = 0; i < TYPES; i++) {
+            queueTime[i].reset();
+            completionTime[i].reset();
+            failures.set(i, 0);
+            timeouts.set(i, 0);
+        }
+        notifications.set(0);
+        notificationBytes.set(0);
+        bufferOverflows.set(0);
+        bufferOverflowBytes.set(0);
+        bufferDroppedBytes.set(0);
+    }
+
+    public WritableMap toWritableMap(double elapsedSeconds) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("queueDepth", queueDepth.get());
+
+        WritableMap commands = Arguments.createMap();
+        for (int i = 0; i < TYPES; i++) {
+            if (queueTime[i].getCount() == 0 && completionTime[i].getCount() == 0 && failures.get(i) == 0
+                    && timeouts.get(i) == 0) {
+                continue;
+            }
+            WritableMap command = Arguments.createMap();
+            command.putMap("queueTime", queueTime[i].toWritableMap());
+            command.putMap("completionTime", completionTime[i].toWritableMap());
+            command.putDouble("failures", failures.get(i));
+            command.putDouble("timeouts", timeouts.get(i));
+            commands.putMap(GattCommand.getName(i), command);
+        }
+        map.putMap("commands", commands);
+
+        map.putDouble("notifications", notifications.get());
+        map.putDouble("notificationBytes", notificationBytes.get());
+        map.putDouble("notificationsPerSecond", elapsedSeconds > 0 ? notifications.get() / elapsedSeconds : 0);
+        map.putDouble("notificationBytesPerSecond",
+                elapsedSeconds > 0 ? notificationBytes.get() / elapsedSeconds : 0);
+        map.putDouble("bufferOverflows", bufferOverflows.get());
+        map.putDouble("bufferOverflowBytes", bufferOverflowBytes.get());
+        map.putDouble("bufferDroppedBytes", bufferDroppedBytes.get());
+        return map;
+    }
+}
@@ -0,0 +1,105 @@
+package it.innove;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Provides the Handler a peripheral runs its command queue and GATT callbacks on.
+ * By default everything runs on the main looper, it can also be a dedicated thread per peripheral
+ * or a fixed size pool of threads shared round robin between peripherals.
+ *
+ * Dedicated threads belong to a Peripheral instance and not to its address: a peripheral created again for
+ * the same address gets its own thread, releasing the old instance never stops it.
+ */
+public class GattThreadPool {
+
+    public static final int MODE_MAIN = 0;
+    public static final int MODE_PERIPHERAL = 1;
+    public static final int MODE_POOL = 2;
+
+    private final int mode;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Peripheral, HandlerThread> peripheralThreads = new IdentityHashMap<>();
+    private final Handler[] poolHandlers;
+    private int nextPoolHandler = 0;
+
+    public GattThreadPool(int mode, int poolSize) {
+        this.mode = mode;
+        if (mode == MODE_POOL) {
+            poolHandlers = new Handler[Math.max(1, poolSize)];
+            for (int i = 0; i < poolHandlers.length; i++) {
+                HandlerThread thread = new HandlerThread("BleManagerGatt-" + i);
+                thread.start();
+                poolHandlers[i] = new Handler(thread.getLooper());
+            }
+        } else {
+            poolHandlers = new Handler[0];
+        }
+    }
+
+    public static int modeFromString(String mode) {
+        if (mode == null) {
+            return MODE_MAIN;
+        }
+        switch (mode) {
+            case "main":
+                return MODE_MAIN;
+            case "peripheral":
+                return MODE_PERIPHERAL;
+            case "pool":
+                return MODE_POOL;
+            default:
+                throw new IllegalArgumentException("Unknown gatt threading mode: " + mode);
+        }
+    }
+
+    public boolean isMainThreaded() {
+        return mode == MODE_MAIN;
+    }
+
+    // True when a pool created with these arguments would hand out the same threads
+    public boolean hasConfiguration(int mode, int poolSize) {
+        return this.mode == mode && (mode != MODE_POOL || poolHandlers.length == Math.max(1, poolSize));
+    }
+
+    public synchronized Handler obtain(Peripheral peripheral) {
+        switch (mode) {
+            case MODE_PERIPHERAL:
+                HandlerThread thread = peripheralThreads.get(peripheral);
+                if (thread == null) {
+                    thread = new HandlerThread("BleManagerGatt-" + peripheral.getDevice().getAddress());
+                    thread.start();
+                    peripheralThreads.put(peripheral, thread);
+                }
+                return new Handler(thread.getLooper());
+            case MODE_POOL:
+                Handler handler = poolHandlers[nextPoolHandler];
+                nextPoolHandler = (nextPoolHandler + 1) % poolHandlers.length;
+                return handler;
+            default:
+                return mainHandler;
+        }
+    }
+
+    // Stops the dedicated thread of a peripheral that is no longer tracked and has closed its gatt
+    public synchronized void release(Peripheral peripheral) {
+        HandlerThread thread = peripheralThreads.remove(peripheral);
+        if (thread != null) {
+            thread.quitSafely();
+        }
+    }
+
+    public synchronized void shutdown() {
+        for (HandlerThread thread : peripheralThreads.values()) {
+            thread.quitSafely();
+        }
+        peripheralThreads.clear();
+        for (Handler handler : poolHandlers) {
+            handler.getLooper().quitSafely();
+        }
+    }
+}
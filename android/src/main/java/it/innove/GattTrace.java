@@ -0,0 +1,77 @@
+package it.innove;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed size ring buffer of the most recent GATT events, enabled with the traceBufferSize start option
+ * and dumped from JS with getTrace().
+ *
+ * Recording claims a slot with a single atomic increment and stores an immutable event in it, so GATT
+ * threads never wait on each other; the oldest events are overwritten once the buffer is full.
+ */
+public class GattTrace {
+
+    private static class Event {
+        final long timestamp;
+        final String event;
+        final String peripheral;
+        @Nullable
+        final UUID characteristic;
+        final int status;
+        final int length;
+
+        Event(long timestamp, String event, String peripheral, @Nullable UUID characteristic, int status,
+              int length) {
+            this.timestamp = timestamp;
+            this.event = event;
+            this.peripheral = peripheral;
+            this.characteristic = characteristic;
+            this.status = status;
+            this.length = length;
+        }
+    }
+
+    private final AtomicReferenceArray<Event> events;
+    private final AtomicLong next = new AtomicLong();
+
+    public GattTrace(int size) {
+        events = new AtomicReferenceArray<>(size);
+    }
+
+    public void add(String event, String peripheral, @Nullable UUID characteristic, int status, int length) {
+        int slot = (int) (next.getAndIncrement() % events.length());
+        events.set(slot, new Event(System.currentTimeMillis(), event, peripheral, characteristic, status, length));
+    }
+
+    // The recorded events, oldest first
+    public WritableArray toWritableArray() {
+        long end = next.get();
+        long start = Math.max(0, end - events.length());
+        WritableArray array = Arguments.createArray();
+        for (long i = start; i < end; i++) {
+            Event event = events.get((int) (i % events.length()));
+            if (event == null) {
+                continue;
+            }
+            WritableMap map = Arguments.createMap();
+            map.putDouble("timestamp", event.timestamp);
+            map.putString("event", event.event);
+            map.putString("peripheral", event.peripheral);
+            if (event.characteristic != null) {
+                map.putString("characteristic", UUIDHelper.uuidToString(event.characteristic));
+            }
+            map.putInt("status", event.status);
+            map.putInt("length", event.length);
+            array.pushMap(map);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,58 @@
+package it.innove;
+
+import android.app.Activity;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.Handler;
+
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * The GATT operations a Peripheral issues. Results are delivered asynchronously to the
+ * BluetoothGattCallback the transport was connected with, exactly like BluetoothGatt does; the
+ * BluetoothGatt argument of those callbacks may be null when the transport is not backed by one.
+ *
+ * BluetoothGattTransport is the real one, SimulatedGattTransport in the unit tests runs the same callbacks
+ * in process so the command queue can be exercised without a device.
+ */
+public interface GattTransport {
+
+    interface Factory {
+        // Starts connecting, the outcome is reported with onConnectionStateChange
+        @Nullable
+        GattTransport connect(Peripheral peripheral, Activity activity, BluetoothGattCallback callback,
+                              Handler handler);
+    }
+
+    List<BluetoothGattService> getServices();
+
+    boolean discoverServices();
+
+    boolean readCharacteristic(BluetoothGattCharacteristic characteristic);
+
+    // The value and write type are taken from the characteristic
+    boolean writeCharacteristic(BluetoothGattCharacteristic characteristic);
+
+    boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable);
+
+    boolean readDescriptor(BluetoothGattDescriptor descriptor);
+
+    boolean writeDescriptor(BluetoothGattDescriptor descriptor);
+
+    boolean readRemoteRssi();
+
+    boolean requestMtu(int mtu);
+
+    boolean requestConnectionPriority(int connectionPriority);
+
+    // Clears the services cached by the stack
+    boolean refresh() throws Exception;
+
+    void disconnect();
+
+    void close();
+}
@@ -0,0 +1,81 @@
+package it.innove;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency distribution recorded without locks.
+ *
+ * Bucket i counts durations below 2^i microseconds (and at least 2^(i-1)), the last bucket everything above
+ * about 67 s. Percentiles are reported as the upper bound of their bucket, so they overestimate by less than 2x.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 27;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        long max;
+        do {
+            max = maxMicros.get();
+        } while (micros > max && !maxMicros.compareAndSet(max, micros));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sumMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    // Durations in ms
+    public WritableMap toWritableMap() {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        WritableMap map = Arguments.createMap();
+        map.putDouble("count", total);
+        map.putDouble("mean", total > 0 ? sumMicros.get() / 1000.0 / total : 0);
+        map.putDouble("max", maxMicros.get() / 1000.0);
+        map.putDouble("p50", percentile(snapshot, total, 0.5));
+        map.putDouble("p90", percentile(snapshot, total, 0.9));
+        map.putDouble("p99", percentile(snapshot, total, 0.99));
+        return map;
+    }
+
+    private static double percentile(long[] snapshot, long total, double fraction) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return (1L << i) / 1000.0;
+            }
+        }
+        return (1L << (snapshot.length - 1)) / 1000.0;
+    }
+}
@@ -4,6 +4,7 @@ import static com.facebook.react.bridge.UiThreadUtil.runOnUiThread;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.facebook.react.bridge.Arguments;
@@ -25,6 +26,7 @@ public class LegacyScanManager extends ScanManager {
         scanSessionId.incrementAndGet();
 
         getBluetoothAdapter().stopLeScan(mLeScanCallback);
+        flushDiscoveries();
         callback.invoke();
     }
 
@@ -34,22 +36,32 @@ public class LegacyScanManager extends ScanManager {
                 @Override
                 public void onLeScan(final BluetoothDevice device, final int rssi,
                                      final byte[] scanRecord) {
-                    runOnUiThread(new Runnable() {
+                    scanIngestion.submit(device.getAddress(), new Runnable() {
                         @Override
                         public void run() {
-                            Log.i(BleManager.LOG_TAG, "DiscoverPeripheral: " + device.getName());
-
                             Peripheral peripheral = bleManager.getPeripheral(device);
                             if (peripheral == null) {
-                                peripheral = new Peripheral(device, rssi, scanRecord, bleManager.getReactContext());
+                                Peripheral created = new Peripheral(device, rssi, scanRecord, bleManager);
+                                peripheral = bleManager.savePeripheral(created);
+                                if (peripheral != created) {
+                                    peripheral.updateData(scanRecord);
+                                    peripheral.updateRssi(rssi);
+                                }
                             } else {
                                 peripheral.updateData(scanRecord);
                                 peripheral.updateRssi(rssi);
+                                peripheral = bleManager.savePeripheral(peripheral);
+                            }
+
+                            if (!scanThrottle.shouldReport(device.getAddress(), rssi, scanRecord,
+                                    SystemClock.elapsedRealtime())) {
+                                return;
+                            }
+                            if (BleLog.isEnabled(Log.INFO)) {
+                                BleLog.i("DiscoverPeripheral: " + device.getName());
                             }
-                            bleManager.savePeripheral(peripheral);
 
-                            WritableMap map = peripheral.asWritableMap();
-                            bleManager.sendEvent("BleManagerDiscoverPeripheral", map);
+                            reportPeripheral(peripheral);
                         }
                     });
                 }
@@ -58,9 +70,11 @@ public class LegacyScanManager extends ScanManager {
             };
 
     @Override
-    public void scan(ReadableArray serviceUUIDs, final int scanSeconds, ReadableMap options, Callback callback) {
+    public void scan(ReadableArray serviceUUIDs, final int scanSeconds, boolean allowDuplicates, ReadableMap options,
+                     Callback callback) {
+        configureReporting(allowDuplicates, options);
         if (serviceUUIDs.size() > 0) {
-            Log.d(BleManager.LOG_TAG, "Filter is not working in pre-lollipop devices");
+            BleLog.d("Filter is not working in pre-lollipop devices");
         }
         getBluetoothAdapter().startLeScan(mLeScanCallback);
 
@@ -85,6 +99,7 @@ public class LegacyScanManager extends ScanManager {
                                 if (btAdapter.getState() == BluetoothAdapter.STATE_ON) {
                                     btAdapter.stopLeScan(mLeScanCallback);
                                 }
+                                flushDiscoveries();
                                 WritableMap map = Arguments.createMap();
                                 map.putInt("status", 0);
                                 bleManager.sendEvent("BleManagerStopScan", map);
@@ -9,8 +9,6 @@ import android.os.ParcelUuid;
 import androidx.annotation.RequiresApi;
 
 import com.facebook.react.bridge.Arguments;
-import com.facebook.react.bridge.ReactApplicationContext;
-import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 
@@ -22,59 +20,69 @@ public class LollipopPeripheral extends Peripheral {
     private ScanRecord advertisingData;
     private ScanResult scanResult;
 
-    public LollipopPeripheral(ReactContext reactContext, ScanResult result) {
-        super(result.getDevice(), result.getRssi(), result.getScanRecord().getBytes(), reactContext);
+    public LollipopPeripheral(BleManager bleManager, ScanResult result) {
+        super(result.getDevice(), result.getRssi(), result.getScanRecord().getBytes(), bleManager);
         this.advertisingData = result.getScanRecord();
         this.scanResult = result;
     }
 
-    public LollipopPeripheral(BluetoothDevice device, ReactApplicationContext reactContext) {
-        super(device, reactContext);
+    public LollipopPeripheral(BluetoothDevice device, BleManager bleManager) {
+        super(device, bleManager);
     }
 
     @Override
-    public WritableMap asWritableMap() {
-        WritableMap map = super.asWritableMap();
+    public WritableMap asWritableMap(int advertisingFields) {
+        WritableMap map = super.asWritableMap(0);
         WritableMap advertising = Arguments.createMap();
 
         try {
-            advertising.putMap("manufacturerData", byteArrayToWritableMap(advertisingDataBytes));
-
-            if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                // We can check if peripheral is connectable using the scanresult
-                if (this.scanResult != null) {
-                    advertising.putBoolean("isConnectable", scanResult.isConnectable());
+            if ((advertisingFields & AdvertisingFields.MANUFACTURER_DATA) != 0)
+                advertising.putMap("manufacturerData", byteArrayToWritableMap(advertisingDataBytes));
+
+            if ((advertisingFields & AdvertisingFields.IS_CONNECTABLE) != 0) {
+                if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    // We can check if peripheral is connectable using the scanresult
+                    if (this.scanResult != null) {
+                        advertising.putBoolean("isConnectable", scanResult.isConnectable());
+                    }
+                } else {
+                    // We can't check if peripheral is connectable
+                    advertising.putBoolean("isConnectable", true);
                 }
-            } else {
-                // We can't check if peripheral is connectable
-                advertising.putBoolean("isConnectable", true);
             }
 
-
+            // the ScanRecord was parsed by the stack, only the requested fields are read from it
             if (advertisingData != null) {
-                String deviceName = advertisingData.getDeviceName();
-                if (deviceName != null)
-                    advertising.putString("localName", deviceName.replace("\0", ""));
-
-                WritableArray serviceUuids = Arguments.createArray();
-                if (advertisingData.getServiceUuids() != null && advertisingData.getServiceUuids().size() != 0) {
-                    for (ParcelUuid uuid : advertisingData.getServiceUuids()) {
-                        serviceUuids.pushString(UUIDHelper.uuidToString(uuid.getUuid()));
+                if ((advertisingFields & AdvertisingFields.LOCAL_NAME) != 0) {
+                    String deviceName = advertisingData.getDeviceName();
+                    if (deviceName != null)
+                        advertising.putString("localName", deviceName.replace("\0", ""));
+                }
+
+                if ((advertisingFields & AdvertisingFields.SERVICE_UUIDS) != 0) {
+                    WritableArray serviceUuids = Arguments.createArray();
+                    if (advertisingData.getServiceUuids() != null && advertisingData.getServiceUuids().size() != 0) {
+                        for (ParcelUuid uuid : advertisingData.getServiceUuids()) {
+                            serviceUuids.pushString(UUIDHelper.uuidToString(uuid.getUuid()));
+                        }
                     }
+                    advertising.putArray("serviceUUIDs", serviceUuids);
                 }
-                advertising.putArray("serviceUUIDs", serviceUuids);
 
-                WritableMap serviceData = Arguments.createMap();
-                if (advertisingData.getServiceData() != null) {
-                    for (Map.Entry<ParcelUuid, byte[]> entry : advertisingData.getServiceData().entrySet()) {
-                        if (entry.getValue() != null) {
-                            serviceData.putMap(UUIDHelper.uuidToString((entry.getKey()).getUuid()), byteArrayToWritableMap(entry.getValue()));
+                if ((advertisingFields & AdvertisingFields.SERVICE_DATA) != 0) {
+                    WritableMap serviceData = Arguments.createMap();
+                    if (advertisingData.getServiceData() != null) {
+                        for (Map.Entry<ParcelUuid, byte[]> entry : advertisingData.getServiceData().entrySet()) {
+                            if (entry.getValue() != null) {
+                                serviceData.putMap(UUIDHelper.uuidToString((entry.getKey()).getUuid()), byteArrayToWritableMap(entry.getValue()));
+                            }
                         }
                     }
+                    advertising.putMap("serviceData", serviceData);
                 }
 
-                advertising.putMap("serviceData", serviceData);
-                advertising.putInt("txPowerLevel", advertisingData.getTxPowerLevel());
+                if ((advertisingFields & AdvertisingFields.TX_POWER_LEVEL) != 0)
+                    advertising.putInt("txPowerLevel", advertisingData.getTxPowerLevel());
             }
 
             map.putMap("advertising", advertising);
@@ -86,6 +94,7 @@ public class LollipopPeripheral extends Peripheral {
     }
 
     public void updateData(ScanResult result) {
+        scanResult = result;
         advertisingData = result.getScanRecord();
         advertisingDataBytes = advertisingData.getBytes();
     }
@@ -14,6 +14,7 @@ import android.bluetooth.le.ScanSettings;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.RequiresApi;
@@ -42,11 +43,14 @@ public class LollipopScanManager extends ScanManager {
         scanSessionId.incrementAndGet();
 
         getBluetoothAdapter().getBluetoothLeScanner().stopScan(mScanCallback);
+        flushDiscoveries();
         callback.invoke();
     }
 
     @Override
-    public void scan(ReadableArray serviceUUIDs, final int scanSeconds, ReadableMap options, Callback callback) {
+    public void scan(ReadableArray serviceUUIDs, final int scanSeconds, boolean allowDuplicates, ReadableMap options,
+                     Callback callback) {
+        configureReporting(allowDuplicates, options);
         ScanSettings.Builder scanSettingsBuilder = new ScanSettings.Builder();
         List<ScanFilter> filters = new ArrayList<>();
 
@@ -88,13 +92,13 @@ public class LollipopScanManager extends ScanManager {
             for (int i = 0; i < serviceUUIDs.size(); i++) {
                 ScanFilter filter = new ScanFilter.Builder().setServiceUuid(new ParcelUuid(UUIDHelper.uuidFromString(serviceUUIDs.getString(i)))).build();
                 filters.add(filter);
-                Log.d(BleManager.LOG_TAG, "Filter service: " + serviceUUIDs.getString(i));
+                BleLog.d("Filter service: " + serviceUUIDs.getString(i));
             }
         }
 
         if (options.hasKey("exactAdvertisingName")) {
             String expectedName = options.getString("exactAdvertisingName");
-            Log.d(BleManager.LOG_TAG, "Filter on advertising name:" + expectedName);
+            BleLog.d("Filter on advertising name:" + expectedName);
             ScanFilter filter = new ScanFilter.Builder().setDeviceName(expectedName).build();
             filters.add(filter);
         }
@@ -123,6 +127,7 @@ public class LollipopScanManager extends ScanManager {
                                 if (btAdapter.getState() == BluetoothAdapter.STATE_ON) {
                                     btAdapter.getBluetoothLeScanner().stopScan(mScanCallback);
                                 }
+                                flushDiscoveries();
 
                                 WritableMap map = Arguments.createMap();
                                 map.putInt("status", 10);
@@ -140,57 +145,53 @@ public class LollipopScanManager extends ScanManager {
     }
 
     private void onDiscoveredPeripheral(final ScanResult result) {
-        String info;
-        ScanRecord record = result.getScanRecord();
-
-        if (record != null) {
-            info = record.getDeviceName();
-        } else if (ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-            info = result.getDevice().getName();
-        } else {
-            info = result.toString();
-        }
-
-        Log.i(BleManager.LOG_TAG, "DiscoverPeripheral: " + info);
-
         LollipopPeripheral peripheral = (LollipopPeripheral) bleManager.getPeripheral(result.getDevice());
         if (peripheral == null) {
-            peripheral = new LollipopPeripheral(bleManager.getReactContext(), result);
+            LollipopPeripheral created = new LollipopPeripheral(bleManager, result);
+            peripheral = (LollipopPeripheral) bleManager.savePeripheral(created);
+            if (peripheral != created) {
+                peripheral.updateData(result);
+                peripheral.updateRssi(result.getRssi());
+            }
         } else {
             peripheral.updateData(result);
             peripheral.updateRssi(result.getRssi());
+            peripheral = (LollipopPeripheral) bleManager.savePeripheral(peripheral);
+        }
+
+        ScanRecord record = result.getScanRecord();
+        if (!scanThrottle.shouldReport(result.getDevice().getAddress(), result.getRssi(),
+                record != null ? record.getBytes() : null, SystemClock.elapsedRealtime())) {
+            return;
+        }
+
+        if (BleLog.isEnabled(Log.INFO)) {
+            String info;
+            if (record != null) {
+                info = record.getDeviceName();
+            } else if (ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
+                info = result.getDevice().getName();
+            } else {
+                info = result.toString();
+            }
+
+            BleLog.i("DiscoverPeripheral: " + info);
         }
-        bleManager.savePeripheral(peripheral);
 
-        WritableMap map = peripheral.asWritableMap();
-        bleManager.sendEvent("BleManagerDiscoverPeripheral", map);
+        reportPeripheral(peripheral);
     }
 
     private final ScanCallback mScanCallback = new ScanCallback() {
         @Override
         public void onScanResult(final int callbackType, final ScanResult result) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    onDiscoveredPeripheral(result);
-                }
-            });
+            scanIngestion.submit(result.getDevice().getAddress(), () -> onDiscoveredPeripheral(result));
         }
 
         @Override
         public void onBatchScanResults(final List<ScanResult> results) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    if (results.isEmpty()) {
-                        return;
-                    }
-
-                    for (ScanResult result : results) {
-                        onDiscoveredPeripheral(result);
-                    }
-                }
-            });
+            for (ScanResult result : results) {
+                scanIngestion.submit(result.getDevice().getAddress(), () -> onDiscoveredPeripheral(result));
+            }
         }
 
         @Override
@@ -0,0 +1,83 @@
+package it.innove;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * Collects characteristic notifications from every peripheral and emits them as a single
+ * BleManagerDidUpdateValueForCharacteristicBatch event, either every flushInterval ms or as soon
+ * as maxBatchSize notifications are pending, whichever comes first.
+ * Entries keep their arrival order, so the order per characteristic is preserved.
+ */
+public class NotificationBatcher {
+
+    public static final String EVENT_NAME = "BleManagerDidUpdateValueForCharacteristicBatch";
+
+    private final BleManager bleManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final int flushInterval;
+    private final int maxBatchSize;
+
+    private WritableArray pending;
+    private int pendingCount = 0;
+
+    private final Runnable flushRunnable = this::flush;
+
+    public NotificationBatcher(BleManager bleManager, int flushInterval, int maxBatchSize) {
+        this.bleManager = bleManager;
+        this.flushInterval = flushInterval;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void add(String peripheral, String service, String characteristic, byte[] value, int offset, int length,
+                    int encoding) {
+        WritableMap entry = Arguments.createMap();
+        entry.putString("peripheral", peripheral);
+        entry.putString("characteristic", characteristic);
+        entry.putString("service", service);
+        NotifyEncoding.putValue(entry, "value", value, offset, length, encoding);
+        entry.putDouble("timestamp", System.currentTimeMillis());
+
+        boolean full;
+        synchronized (this) {
+            if (pending == null) {
+                pending = Arguments.createArray();
+                handler.postDelayed(flushRunnable, flushInterval);
+            }
+            pending.pushMap(entry);
+            pendingCount++;
+            full = pendingCount >= maxBatchSize;
+        }
+
+        if (full) {
+            flush();
+        }
+    }
+
+    public void flush() {
+        WritableArray batch;
+        synchronized (this) {
+            handler.removeCallbacks(flushRunnable);
+            if (pending == null) {
+                return;
+            }
+            batch = pending;
+            pending = null;
+            pendingCount = 0;
+        }
+
+        WritableMap map = Arguments.createMap();
+        map.putArray("values", batch);
+        bleManager.sendEvent(EVENT_NAME, map);
+    }
+
+    public synchronized void stop() {
+        handler.removeCallbacks(flushRunnable);
+        pending = null;
+        pendingCount = 0;
+    }
+}
@@ -1,35 +1,190 @@
 package it.innove;
 
-import java.nio.ByteBuffer;
-
+/**
+ * Frames the values notified by a characteristic before they are sent to JS.
+ *
+ * A frame is emitted when maxBufferSize bytes are buffered, when the delimiter byte is received
+ * (the delimiter itself is not part of the frame) or when the number of bytes announced by a
+ * little endian length prefix has been received (the prefix is not part of the frame).
+ * Bytes that don't fit in the current frame are kept for the next one, and frames are always
+ * emitted with their exact length. With a length prefix, a frame announcing more than the buffer
+ * holds is emitted cut and a partial frame can be flushed, the rest of their payload is then
+ * discarded as it arrives so the next prefix is read at the right place.
+ *
+ * The backing array is taken from NotifyBufferPool on the first value and reused for every frame,
+ * release() gives it back once the characteristic stops notifying.
+ */
 public class NotifyBufferContainer {
-    public final Integer maxBufferSize;
-    private Integer bufferCount;
-    public ByteBuffer items;
 
-    public NotifyBufferContainer(Integer size) {
+    public interface FrameListener {
+        void onFrame(byte[] buffer, int offset, int length);
+    }
+
+    public static final int NO_DELIMITER = -1;
+
+    public final int maxBufferSize;
+    public final int delimiter;
+    public final int lengthPrefixSize;
+    // max time in ms a partial frame is kept before being flushed, 0 to wait for a full frame
+    public final int flushTimeout;
+    boolean flushScheduled = false;
+
+    private byte[] items;
+    private int bufferCount;
+    private int frameLength;
+    // length announced by the prefix of the current frame, prefix included, may exceed maxBufferSize
+    private int announcedLength;
+    // bytes of an already emitted frame still to be received and discarded
+    private int skipCount;
+    // bytes that didn't fit in their frame since the last takeOverflowBytes()
+    private int overflowBytes;
+
+    public NotifyBufferContainer(int size) {
+        this(size, NO_DELIMITER, 0, 0);
+    }
+
+    public NotifyBufferContainer(int size, int delimiter, int lengthPrefixSize, int flushTimeout) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Buffer size must be greater than 0");
+        }
+        if (delimiter < NO_DELIMITER || delimiter > 0xFF) {
+            throw new IllegalArgumentException("Delimiter must be a byte value");
+        }
+        if (lengthPrefixSize < 0 || lengthPrefixSize > 2) {
+            throw new IllegalArgumentException("Length prefix size must be 1 or 2 bytes");
+        }
+        if (lengthPrefixSize > 0 && delimiter != NO_DELIMITER) {
+            throw new IllegalArgumentException("Delimiter and length prefix can't be used together");
+        }
+        if (lengthPrefixSize >= size) {
+            throw new IllegalArgumentException("Buffer size must be greater than the length prefix size");
+        }
         this.maxBufferSize = size;
+        this.delimiter = delimiter;
+        this.lengthPrefixSize = lengthPrefixSize;
+        this.flushTimeout = Math.max(0, flushTimeout);
         this.resetBuffer();
     }
-    public void resetBuffer(){
+
+    public synchronized void resetBuffer() {
+        this.skipCount = 0;
+        this.startFrame();
+    }
+
+    private void startFrame() {
         this.bufferCount = 0;
-        this.items = ByteBuffer.allocate(this.maxBufferSize);
+        this.frameLength = this.lengthPrefixSize > 0 ? 0 : this.maxBufferSize;
+        this.announcedLength = this.frameLength;
+    }
+
+    // Drops the partial frame and gives the backing array back to the pool, returns the number of bytes dropped
+    public synchronized int release() {
+        int dropped = this.bufferCount;
+        this.resetBuffer();
+        if (this.items != null) {
+            NotifyBufferPool.release(this.items);
+            this.items = null;
+        }
+        return dropped;
     }
-    public void put(byte[] value){
-        this.bufferCount += value.length;
-        if (this.items.remaining() < value.length) {
-            return;
+
+    // Returns the number of frames cut because they didn't fit in the buffer
+    public synchronized int put(byte[] value, FrameListener listener) {
+        if (this.items == null) {
+            this.items = NotifyBufferPool.acquire(this.maxBufferSize);
         }
-        this.items.put(value);
+        int overflows = 0;
+        int offset = 0;
+        while (offset < value.length) {
+            if (this.delimiter != NO_DELIMITER) {
+                byte b = value[offset++];
+                if ((b & 0xFF) == this.delimiter) {
+                    if (this.bufferCount > 0) {
+                        emit(0, this.bufferCount, listener);
+                    }
+                    continue;
+                }
+                this.items[this.bufferCount++] = b;
+                if (this.bufferCount == this.maxBufferSize) {
+                    // no delimiter in sight and the buffer is full, send what we have
+                    overflows++;
+                    this.overflowBytes += this.bufferCount;
+                    emit(0, this.bufferCount, listener);
+                }
+                continue;
+            }
+
+            if (this.skipCount > 0) {
+                int skipped = Math.min(value.length - offset, this.skipCount);
+                this.skipCount -= skipped;
+                offset += skipped;
+                continue;
+            }
+
+            // until the length prefix is read the frame is only as long as the prefix
+            int target = this.frameLength > 0 ? this.frameLength : this.lengthPrefixSize;
+            int length = Math.min(value.length - offset, target - this.bufferCount);
+            System.arraycopy(value, offset, this.items, this.bufferCount, length);
+            this.bufferCount += length;
+            offset += length;
+
+            if (this.frameLength == 0 && this.bufferCount == this.lengthPrefixSize) {
+                int payloadLength = this.items[0] & 0xFF;
+                if (this.lengthPrefixSize == 2) {
+                    payloadLength |= (this.items[1] & 0xFF) << 8;
+                }
+                // frames announcing more than the buffer can hold are cut at maxBufferSize
+                this.announcedLength = this.lengthPrefixSize + payloadLength;
+                if (this.announcedLength > this.maxBufferSize) {
+                    overflows++;
+                    this.overflowBytes += this.announcedLength - this.maxBufferSize;
+                }
+                this.frameLength = Math.min(this.announcedLength, this.maxBufferSize);
+            }
+            if (this.bufferCount == this.frameLength) {
+                emitPrefixed(listener);
+            }
+        }
+        return overflows;
     }
-    public boolean isBufferFull(){
-        return this.bufferCount >= this.maxBufferSize;
+
+    // Sends the partial frame, if any. A prefixed frame is kept until some of its payload arrived.
+    public synchronized boolean flush(FrameListener listener) {
+        if (this.lengthPrefixSize > 0) {
+            if (this.frameLength == 0 || this.bufferCount == this.lengthPrefixSize) {
+                return false;
+            }
+            emitPrefixed(listener);
+            return true;
+        }
+        if (this.bufferCount == 0) {
+            return false;
+        }
+        emit(0, this.bufferCount, listener);
+        return true;
+    }
+
+    // Bytes that didn't fit in their frame since the last call: the skipped payload of length prefixed frames
+    // announcing more than the buffer holds, and the bytes sent as a cut frame when no delimiter came in time
+    public synchronized int takeOverflowBytes() {
+        int bytes = this.overflowBytes;
+        this.overflowBytes = 0;
+        return bytes;
     }
-    public Integer size() {
+
+    public synchronized int size() {
         return this.bufferCount;
     }
-    @Override 
-    protected void finalize() throws Throwable {
-        this.items = ByteBuffer.allocate(0);
+
+    private void emit(int offset, int length, FrameListener listener) {
+        listener.onFrame(this.items, offset, length);
+        this.startFrame();
+    }
+
+    // The payload of the current prefixed frame, what it announced beyond that is skipped
+    private void emitPrefixed(FrameListener listener) {
+        int remaining = this.announcedLength - this.bufferCount;
+        emit(this.lengthPrefixSize, this.bufferCount - this.lengthPrefixSize, listener);
+        this.skipCount = remaining;
     }
 }
@@ -0,0 +1,52 @@
+package it.innove;
+
+/**
+ * Recycles the backing arrays of NotifyBufferContainer across characteristics and peripherals.
+ * Arrays are grouped in power of two size classes, so a buffer of 300 bytes reuses any 512 bytes
+ * array released before. Only a few arrays are kept per size class, the rest is left to the GC.
+ */
+public class NotifyBufferPool {
+
+    private static final int MIN_SIZE_CLASS = 6; // 64 bytes
+    private static final int MAX_SIZE_CLASS = 20; // 1 MB, bigger buffers are not pooled
+    private static final int MAX_POOLED_PER_CLASS = 8;
+
+    private static final byte[][][] pool = new byte[MAX_SIZE_CLASS + 1][MAX_POOLED_PER_CLASS][];
+    private static final int[] pooledCount = new int[MAX_SIZE_CLASS + 1];
+
+    public static byte[] acquire(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        if (sizeClass > MAX_SIZE_CLASS) {
+            return new byte[minSize];
+        }
+        synchronized (pool[sizeClass]) {
+            int count = pooledCount[sizeClass];
+            if (count > 0) {
+                byte[] array = pool[sizeClass][count - 1];
+                pool[sizeClass][count - 1] = null;
+                pooledCount[sizeClass] = count - 1;
+                return array;
+            }
+        }
+        return new byte[1 << sizeClass];
+    }
+
+    public static void release(byte[] array) {
+        int sizeClass = sizeClass(array.length);
+        if (sizeClass > MAX_SIZE_CLASS || array.length != 1 << sizeClass) {
+            return;
+        }
+        synchronized (pool[sizeClass]) {
+            int count = pooledCount[sizeClass];
+            if (count < MAX_POOLED_PER_CLASS) {
+                pool[sizeClass][count] = array;
+                pooledCount[sizeClass] = count + 1;
+            }
+        }
+    }
+
+    private static int sizeClass(int size) {
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+        return Math.max(sizeClass, MIN_SIZE_CLASS);
+    }
+}
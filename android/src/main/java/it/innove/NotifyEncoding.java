@@ -0,0 +1,50 @@
+package it.innove;
+
+import android.util.Base64;
+
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * Encodings a notified characteristic value can be sent to JS with.
+ * ARRAY keeps the historical number[] payload, BASE64 and HEX send a single string.
+ */
+public class NotifyEncoding {
+
+    public static final int ARRAY = 0;
+    public static final int BASE64 = 1;
+    public static final int HEX = 2;
+
+    public static int fromString(String encoding) {
+        if (encoding == null) {
+            return ARRAY;
+        }
+        switch (encoding) {
+            case "base64":
+                return BASE64;
+            case "hex":
+                return HEX;
+            case "array":
+                return ARRAY;
+            default:
+                throw new IllegalArgumentException("Unknown notification encoding: " + encoding);
+        }
+    }
+
+    public static void putValue(WritableMap map, String key, byte[] bytes, int encoding) {
+        putValue(map, key, bytes, 0, bytes.length, encoding);
+    }
+
+    public static void putValue(WritableMap map, String key, byte[] bytes, int offset, int length, int encoding) {
+        switch (encoding) {
+            case BASE64:
+                map.putString(key, Base64.encodeToString(bytes, offset, length, Base64.NO_WRAP));
+                break;
+            case HEX:
+                map.putString(key, BytesHelper.toHex(bytes, offset, length));
+                break;
+            default:
+                map.putArray(key, BytesHelper.toWritableArray(bytes, offset, length));
+                break;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package it.innove;
 
 import static android.os.Build.VERSION_CODES.LOLLIPOP;
-import static com.facebook.react.common.ReactConstants.TAG;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothDevice;
@@ -9,37 +8,30 @@ import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
-import android.content.Context;
 import android.os.Build;
 import android.os.Handler;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Base64;
-import android.util.Log;
 
 import androidx.annotation.Nullable;
 
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Callback;
 import com.facebook.react.bridge.ReactContext;
-import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
 
 import org.json.JSONException;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Peripheral wraps the BluetoothDevice and provides methods to convert to JSON.
@@ -52,45 +44,104 @@ public class Peripheral extends BluetoothGattCallback {
 
     private final BluetoothDevice device;
     private final Map<String, NotifyBufferContainer> bufferedCharacteristics;
+    private final Map<String, Integer> notifyEncodings = new ConcurrentHashMap<>();
+    private final Map<String, NotifyBufferContainer.FrameListener> frameListeners = new ConcurrentHashMap<>();
     protected volatile byte[] advertisingDataBytes = new byte[0];
     protected volatile int advertisingRSSI;
     private volatile boolean connected = false;
     private volatile boolean connecting = false;
+    private final BleManager bleManager;
     private ReactContext reactContext;
 
-    private BluetoothGatt gatt;
+    private volatile GattTransport gatt;
+    // How many times the registry holds this peripheral: an increment and a decrement racing in either order
+    // still add up. The GATT thread is released once it is back to 0 and gatt is closed.
+    private final AtomicInteger registrations = new AtomicInteger();
 
     private LinkedList<Callback> connectCallbacks = new LinkedList<>();
-    private LinkedList<Callback> retrieveServicesCallbacks = new LinkedList<>();
-    private LinkedList<Callback> readCallbacks = new LinkedList<>();
-    private LinkedList<Callback> readDescriptorCallbacks = new LinkedList<>();
-    private LinkedList<Callback> readRSSICallbacks = new LinkedList<>();
-    private LinkedList<Callback> writeCallbacks = new LinkedList<>();
-    private LinkedList<Callback> registerNotifyCallbacks = new LinkedList<>();
-    private LinkedList<Callback> requestMTUCallbacks = new LinkedList<>();
-
-    private final Queue<Runnable> commandQueue = new ConcurrentLinkedQueue<>();
-    private final Handler mainHandler = new Handler(Looper.getMainLooper());
-    private Runnable discoverServicesRunnable;
-    private boolean commandQueueBusy = false;
-
-    private List<byte[]> writeQueue = new ArrayList<>();
 
-    public Peripheral(BluetoothDevice device, int advertisingRSSI, byte[] scanRecord, ReactContext reactContext) {
+    // placeholder held by currentCommand while a thread takes the next command from the queue
+    private static final GattCommand CLAIMED = new GattCommand(-1, GattCommand.PRIORITY_DEFAULT, 0, null, null);
+    // replaces CLAIMED when failAllCommands() runs meanwhile, the claimer then drains the queue with failingError
+    private static final GattCommand FAILING = new GattCommand(-1, GattCommand.PRIORITY_DEFAULT, 0, null, null);
+    private volatile String failingError;
+    private final GattCommandQueue commandQueue = new GattCommandQueue();
+    private final AtomicReference<GattCommand> currentCommand = new AtomicReference<>();
+    // obtained from BleManager on first use, see GattThreadPool
+    private volatile Handler handler;
+    private Runnable discoverServicesRunnable;
+    // null until the services are discovered, see getCharacteristicIndex()
+    private volatile CharacteristicIndex characteristicIndex;
+    // kept across reconnections, they are only rebuilt if the services changed
+    private final ServiceTable serviceTable = new ServiceTable(false);
+    private final ServiceTable compactServiceTable = new ServiceTable(true);
+    private final GattMetrics metrics;
+    private boolean retrieveServicesCompact = false;
+
+    private ChunkedWrite currentWrite;
+    private BluetoothGattCharacteristic currentWriteCharacteristic;
+    private final Runnable writeNextChunkRunnable = this::writeNextChunk;
+
+    public Peripheral(BluetoothDevice device, int advertisingRSSI, byte[] scanRecord, BleManager bleManager) {
         this.device = device;
         this.bufferedCharacteristics = new ConcurrentHashMap<String, NotifyBufferContainer>();
         this.advertisingRSSI = advertisingRSSI;
         this.advertisingDataBytes = scanRecord;
-        this.reactContext = reactContext;
+        this.bleManager = bleManager;
+        this.reactContext = bleManager.getReactContext();
+        this.metrics = new GattMetrics(bleManager.getMetrics().getGatt());
     }
 
-    public Peripheral(BluetoothDevice device, ReactContext reactContext) {
+    public Peripheral(BluetoothDevice device, BleManager bleManager) {
         this.device = device;
         this.bufferedCharacteristics = new ConcurrentHashMap<String, NotifyBufferContainer>();
-        this.reactContext = reactContext;
+        this.bleManager = bleManager;
+        this.reactContext = bleManager.getReactContext();
+        this.metrics = new GattMetrics(bleManager.getMetrics().getGatt());
+    }
+
+    private Handler getHandler() {
+        Handler current = handler;
+        if (current == null) {
+            synchronized (this) {
+                if (handler == null) {
+                    handler = bleManager.getGattHandler(this);
+                }
+                current = handler;
+            }
+        }
+        return current;
+    }
+
+    // Called by BleManager when the peripheral entered the registry, also again after an eviction
+    public void onAdded() {
+        registrations.incrementAndGet();
+    }
+
+    // Called by BleManager once the peripheral left the registry
+    public void onRemoved() {
+        Handler current = handler;
+        if (registrations.decrementAndGet() <= 0 && current != null) {
+            // runs after anything already posted, e.g. a connect or a disconnect still to close gatt
+            current.post(this::releaseHandler);
+        }
+    }
+
+    // Gives the GATT thread back once the peripheral is out of the registry and gatt is closed
+    private void releaseHandler() {
+        if (registrations.get() > 0 || gatt != null) {
+            return;
+        }
+        synchronized (this) {
+            if (handler != null) {
+                handler = null;
+                bleManager.releaseGattHandler(this);
+            }
+        }
     }
 
     private void sendEvent(String eventName, @Nullable WritableMap params) {
+        bleManager.getMetrics().onEventEmitted();
         synchronized (reactContext) {
             reactContext.getJSModule(RCTNativeAppEventEmitter.class).emit(eventName, params);
         }
@@ -103,34 +154,23 @@ public class Peripheral extends BluetoothGattCallback {
             map.putInt("status", status);
         }
         sendEvent(eventName, map);
-        Log.d(BleManager.LOG_TAG, "Peripheral event (" + eventName + "):" + device.getAddress());
+        if (BleLog.isDebugEnabled()) {
+            BleLog.d("Peripheral event (" + eventName + "):" + device.getAddress());
+        }
     }
 
     public void connect(final Callback callback, Activity activity) {
-        mainHandler.post(() -> {
+        // set right away so the peripheral is not evicted before the connection starts
+        if (!connected) {
+            connecting = true;
+        }
+        getHandler().post(() -> {
             if (!connected) {
-                BluetoothDevice device = getDevice();
                 this.connectCallbacks.addLast(callback);
                 this.connecting = true;
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                    Log.d(BleManager.LOG_TAG, " Is Or Greater than M $mBluetoothDevice");
-                    gatt = device.connectGatt(activity, false, this, BluetoothDevice.TRANSPORT_LE);
-                } else {
-                    Log.d(BleManager.LOG_TAG, " Less than M");
-                    try {
-                        Log.d(BleManager.LOG_TAG, " Trying TRANPORT LE with reflection");
-                        Method m = device.getClass().getDeclaredMethod("connectGatt", Context.class, Boolean.class,
-                                BluetoothGattCallback.class, Integer.class);
-                        m.setAccessible(true);
-                        Integer transport = device.getClass().getDeclaredField("TRANSPORT_LE").getInt(null);
-                        gatt = (BluetoothGatt) m.invoke(device, activity, false, this, transport);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        Log.d(TAG, " Catch to call normal connection");
-                        gatt = device.connectGatt(activity, false, this);
-                    }
-                }
+                gatt = bleManager.getGattTransportFactory().connect(this, activity, this, getHandler());
             } else {
+                connecting = false;
                 if (gatt != null) {
                     callback.invoke();
                 } else {
@@ -142,15 +182,15 @@ public class Peripheral extends BluetoothGattCallback {
     // bt_btif : Register with GATT stack failed.
 
 	public void disconnect(final Callback callback, final boolean force) {
-		mainHandler.post(() -> {
+		getHandler().post(() -> {
 			for (Callback connectCallback: connectCallbacks) {
 				connectCallback.invoke("Disconnect called before connect callback invoked");
 			}
 			connectCallbacks.clear();
 			connected = false;
+			characteristicIndex = null;
 			clearBuffers();
-			commandQueue.clear();
-			commandQueueBusy = false;
+			failAllCommands("Device disconnected");
 
             if (gatt != null) {
                 try {
@@ -158,21 +198,27 @@ public class Peripheral extends BluetoothGattCallback {
                     if (force) {
                         gatt.close();
                         gatt = null;
+                        releaseHandler();
                         sendConnectionEvent(device, "BleManagerDisconnectPeripheral", BluetoothGatt.GATT_SUCCESS);
                     }
-                    Log.d(BleManager.LOG_TAG, "Disconnect");
+                    BleLog.d("Disconnect");
                 } catch (Exception e) {
                     sendConnectionEvent(device, "BleManagerDisconnectPeripheral", BluetoothGatt.GATT_FAILURE);
-                    Log.d(BleManager.LOG_TAG, "Error on disconnect", e);
+                    BleLog.d("Error on disconnect", e);
                 }
             } else
-                Log.d(BleManager.LOG_TAG, "GATT is null");
+                BleLog.d("GATT is null");
             if (callback != null)
                 callback.invoke();
         });
     }
 
     public WritableMap asWritableMap() {
+        return asWritableMap(AdvertisingFields.ALL);
+    }
+
+    // Only the advertising fields in the AdvertisingFields mask are serialized
+    public WritableMap asWritableMap(int advertisingFields) {
         WritableMap map = Arguments.createMap();
         WritableMap advertising = Arguments.createMap();
 
@@ -182,13 +228,15 @@ public class Peripheral extends BluetoothGattCallback {
             map.putInt("rssi", advertisingRSSI);
 
             String name = device.getName();
-            if (name != null)
+            if (name != null && (advertisingFields & AdvertisingFields.LOCAL_NAME) != 0)
                 advertising.putString("localName", name);
 
-            advertising.putMap("manufacturerData", byteArrayToWritableMap(advertisingDataBytes));
+            if ((advertisingFields & AdvertisingFields.MANUFACTURER_DATA) != 0)
+                advertising.putMap("manufacturerData", byteArrayToWritableMap(advertisingDataBytes));
 
             // No scanResult to access so we can't check if peripheral is connectable
-            advertising.putBoolean("isConnectable", true);
+            if ((advertisingFields & AdvertisingFields.IS_CONNECTABLE) != 0)
+                advertising.putBoolean("isConnectable", true);
 
             map.putMap("advertising", advertising);
         } catch (Exception e) { // this shouldn't happen
@@ -198,59 +246,16 @@ public class Peripheral extends BluetoothGattCallback {
         return map;
     }
 
-    public WritableMap asWritableMap(BluetoothGatt gatt) {
+    public WritableMap asWritableMap(GattTransport gatt) {
+        return asWritableMap(gatt, false);
+    }
 
-        WritableMap map = asWritableMap();
+    public WritableMap asWritableMap(GattTransport gatt, boolean compact) {
 
-        WritableArray servicesArray = Arguments.createArray();
-        WritableArray characteristicsArray = Arguments.createArray();
+        WritableMap map = asWritableMap();
 
         if (connected && gatt != null) {
-            for (Iterator<BluetoothGattService> it = gatt.getServices().iterator(); it.hasNext(); ) {
-                BluetoothGattService service = it.next();
-                WritableMap serviceMap = Arguments.createMap();
-                serviceMap.putString("uuid", UUIDHelper.uuidToString(service.getUuid()));
-
-                for (Iterator<BluetoothGattCharacteristic> itCharacteristic = service.getCharacteristics()
-                        .iterator(); itCharacteristic.hasNext(); ) {
-                    BluetoothGattCharacteristic characteristic = itCharacteristic.next();
-                    WritableMap characteristicsMap = Arguments.createMap();
-
-                    characteristicsMap.putString("service", UUIDHelper.uuidToString(service.getUuid()));
-                    characteristicsMap.putString("characteristic", UUIDHelper.uuidToString(characteristic.getUuid()));
-
-                    characteristicsMap.putMap("properties", Helper.decodeProperties(characteristic));
-
-                    if (characteristic.getPermissions() > 0) {
-                        characteristicsMap.putMap("permissions", Helper.decodePermissions(characteristic));
-                    }
-
-                    WritableArray descriptorsArray = Arguments.createArray();
-
-                    for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
-                        WritableMap descriptorMap = Arguments.createMap();
-                        descriptorMap.putString("uuid", UUIDHelper.uuidToString(descriptor.getUuid()));
-                        if (descriptor.getValue() != null) {
-                            descriptorMap.putString("value",
-                                    Base64.encodeToString(descriptor.getValue(), Base64.NO_WRAP));
-                        } else {
-                            descriptorMap.putString("value", null);
-                        }
-
-                        if (descriptor.getPermissions() > 0) {
-                            descriptorMap.putMap("permissions", Helper.decodePermissions(descriptor));
-                        }
-                        descriptorsArray.pushMap(descriptorMap);
-                    }
-                    if (descriptorsArray.size() > 0) {
-                        characteristicsMap.putArray("descriptors", descriptorsArray);
-                    }
-                    characteristicsArray.pushMap(characteristicsMap);
-                }
-                servicesArray.pushMap(serviceMap);
-            }
-            map.putArray("services", servicesArray);
-            map.putArray("characteristics", characteristicsArray);
+            (compact ? compactServiceTable : serviceTable).putInto(map, gatt.getServices());
         }
 
         return map;
@@ -264,6 +269,10 @@ public class Peripheral extends BluetoothGattCallback {
         return object;
     }
 
+    public GattMetrics getMetrics() {
+        return metrics;
+    }
+
     public boolean isConnected() {
         return connected;
     }
@@ -272,6 +281,11 @@ public class Peripheral extends BluetoothGattCallback {
         return connecting;
     }
 
+    // True until gatt is closed, also while disconnecting
+    public boolean hasGatt() {
+        return gatt != null;
+    }
+
     public BluetoothDevice getDevice() {
         return device;
     }
@@ -279,24 +293,44 @@ public class Peripheral extends BluetoothGattCallback {
 	@Override
 	public void onServicesDiscovered(BluetoothGatt gatt, int status) {
 		super.onServicesDiscovered(gatt, status);
-		mainHandler.post(() -> {
-			WritableMap map = this.asWritableMap(gatt);
-			for (Callback retrieveServicesCallback: retrieveServicesCallbacks) {
-				retrieveServicesCallback.invoke(null, map);
+		BleLog.trace("servicesDiscovered", device.getAddress(), null, status, 0);
+		getHandler().post(() -> {
+			GattTransport transport = this.gatt;
+			characteristicIndex = status == BluetoothGatt.GATT_SUCCESS && transport != null
+					? new CharacteristicIndex(transport.getServices()) : null;
+			// discoveries started right after connecting are not commands of the queue
+			GattCommand command = runningCommand(GattCommand.RETRIEVE_SERVICES);
+			if (command == null) {
+				BleLog.d("onServicesDiscovered with no retrieveServices pending");
+				return;
 			}
-			retrieveServicesCallbacks.clear();
-			completedCommand();
+			completeCommand(command, null, this.asWritableMap(transport, retrieveServicesCompact));
 		});
 	}
 
     @Override
-    public void onConnectionStateChange(BluetoothGatt gatta, int status, final int newState) {
+    public void onServiceChanged(BluetoothGatt gatt) {
+        super.onServiceChanged(gatt);
+        BleLog.d("onServiceChanged on peripheral: " + device.getAddress());
+        characteristicIndex = null;
+    }
 
-        Log.d(BleManager.LOG_TAG, "onConnectionStateChange to " + newState + " on peripheral: " + device.getAddress()
+    @Override
+    public void onConnectionStateChange(BluetoothGatt gatta, int status, final int newState) {
+        BleLog.trace("connectionStateChange", device.getAddress(), null, status, newState);
+        BleLog.d("onConnectionStateChange to " + newState + " on peripheral: " + device.getAddress()
                 + " with status " + status);
 
-        mainHandler.post(() -> {
-            gatt = gatta;
+        getHandler().post(() -> {
+            // gatta is null when the callback comes from a transport not backed by a BluetoothGatt
+            if (gatta != null && !(gatt instanceof BluetoothGattTransport
+                    && ((BluetoothGattTransport) gatt).wraps(gatta))) {
+                gatt = new BluetoothGattTransport(gatta);
+            }
+            if (gatt == null) {
+                BleLog.d("onConnectionStateChange without a transport on peripheral: " + device.getAddress());
+                return;
+            }
 
             if (status != BluetoothGatt.GATT_SUCCESS) {
                 gatt.close();
@@ -312,17 +346,17 @@ public class Peripheral extends BluetoothGattCallback {
                         try {
                             gatt.discoverServices();
                         } catch (NullPointerException e) {
-                            Log.d(BleManager.LOG_TAG, "onConnectionStateChange connected but gatt of Run method was null");
+                            BleLog.d("onConnectionStateChange connected but gatt of Run method was null");
                         }
                         discoverServicesRunnable = null;
                     }
                 };
 
-                mainHandler.post(discoverServicesRunnable);
+                getHandler().post(discoverServicesRunnable);
 
                 sendConnectionEvent(device, "BleManagerConnectPeripheral", status);
 
-				Log.d(BleManager.LOG_TAG, "Connected to: " + device.getAddress());
+				BleLog.d("Connected to: " + device.getAddress());
 				for (Callback connectCallback: connectCallbacks) {
 					connectCallback.invoke();
 				}
@@ -331,61 +365,24 @@ public class Peripheral extends BluetoothGattCallback {
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED || status != BluetoothGatt.GATT_SUCCESS) {
 
                 if (discoverServicesRunnable != null) {
-                    mainHandler.removeCallbacks(discoverServicesRunnable);
+                    getHandler().removeCallbacks(discoverServicesRunnable);
                     discoverServicesRunnable = null;
                 }
 
-				for (Callback writeCallback: writeCallbacks) {
-					writeCallback.invoke("Device disconnected");
-				}
-				writeCallbacks.clear();
-
-				for (Callback retrieveServicesCallback: retrieveServicesCallbacks) {
-					retrieveServicesCallback.invoke("Device disconnected");
-				}
-				retrieveServicesCallbacks.clear();
-
-				for (Callback readRSSICallback: readRSSICallbacks) {
-					readRSSICallback.invoke("Device disconnected");
-				}
-				readRSSICallbacks.clear();
-
-				for (Callback registerNotifyCallback: registerNotifyCallbacks) {
-					registerNotifyCallback.invoke("Device disconnected");
-				}
-				registerNotifyCallbacks.clear();
-
-				for (Callback requestMTUCallback: requestMTUCallbacks) {
-					requestMTUCallback.invoke("Device disconnected");
-				}
-				requestMTUCallbacks.clear();
-
-				for (Callback readCallback: readCallbacks) {
-					readCallback.invoke("Device disconnected");
-				}
-				readCallbacks.clear();
-
-                for (Callback readDescriptorCallback: readDescriptorCallbacks) {
-                    readDescriptorCallback.invoke("Device disconnected");
-                }
-                readDescriptorCallbacks.clear();
-
 				for (Callback connectCallback: connectCallbacks) {
 					connectCallback.invoke("Connection error");
 				}
 				connectCallbacks.clear();
 
-                writeQueue.clear();
-                commandQueue.clear();
-                commandQueueBusy = false;
                 connected = false;
+                characteristicIndex = null;
                 clearBuffers();
-                commandQueue.clear();
-                commandQueueBusy = false;
+                failAllCommands("Device disconnected");
 
                 gatt.disconnect();
                 gatt.close();
                 gatt = null;
+                releaseHandler();
                 sendConnectionEvent(device, "BleManagerDisconnectPeripheral", BluetoothGatt.GATT_SUCCESS);
 
             }
@@ -411,179 +408,206 @@ public class Peripheral extends BluetoothGattCallback {
     @Override
     public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
         super.onCharacteristicChanged(gatt, characteristic);
+        BleLog.trace("characteristicChanged", device.getAddress(), characteristic.getUuid(), 0,
+                characteristic.getValue() != null ? characteristic.getValue().length : 0);
         try {
             String charString = characteristic.getUuid().toString();
             String service = characteristic.getService().getUuid().toString();
-            NotifyBufferContainer buffer = this.bufferedCharacteristics
-                    .get(this.bufferedCharacteristicsKey(service, charString));
+            String key = this.bufferedCharacteristicsKey(service, charString);
+            Integer encodingValue = this.notifyEncodings.get(key);
+            int encoding = encodingValue != null ? encodingValue : NotifyEncoding.ARRAY;
+            NotifyBufferContainer buffer = this.bufferedCharacteristics.get(key);
             byte[] dataValue = characteristic.getValue();
+            metrics.onNotification(dataValue.length);
             if (buffer != null) {
-                buffer.put(dataValue);
-                Log.d(BleManager.LOG_TAG, "onCharacteristicChanged-buffering: " +
-                        buffer.size() + " from peripheral: " + device.getAddress());
-
-                if (buffer.isBufferFull()) {
-                    Log.d(BleManager.LOG_TAG, "onCharacteristicChanged sending buffered data " + buffer.size());
-
-                    // send'm and reset
-                    dataValue = buffer.items.array();
-                    buffer.resetBuffer();
-                } else {
-                    return;
+                NotifyBufferContainer.FrameListener listener = this.frameListeners.get(key);
+                if (listener == null) {
+                    listener = (bytes, offset, length) -> {
+                        if (BleLog.isDebugEnabled()) {
+                            BleLog.d("onCharacteristicChanged sending buffered data " + length);
+                        }
+                        sendCharacteristicValue(service, charString, bytes, offset, length, encoding);
+                    };
+                    this.frameListeners.put(key, listener);
+                }
+                int overflows = buffer.put(dataValue, listener);
+                if (overflows > 0) {
+                    metrics.onBufferOverflows(overflows, buffer.takeOverflowBytes());
                 }
+                if (BleLog.isDebugEnabled()) {
+                    BleLog.d("onCharacteristicChanged-buffering: " +
+                            buffer.size() + " from peripheral: " + device.getAddress());
+                }
+                scheduleBufferFlush(key, buffer, listener);
+                return;
             }
-            Log.d(BleManager.LOG_TAG, "onCharacteristicChanged: " + BleManager.bytesToHex(dataValue)
-                    + " from peripheral: " + device.getAddress());
-            WritableMap map = Arguments.createMap();
-            map.putString("peripheral", device.getAddress());
-            map.putString("characteristic", charString);
-            map.putString("service", service);
-            map.putArray("value", BleManager.bytesToWritableArray(dataValue));
-            sendEvent("BleManagerDidUpdateValueForCharacteristic", map);
+            if (BleLog.isDebugEnabled()) {
+                BleLog.d("onCharacteristicChanged: " + BleManager.bytesToHex(dataValue)
+                        + " from peripheral: " + device.getAddress());
+            }
+            sendCharacteristicValue(service, charString, dataValue, 0, dataValue.length, encoding);
 
         } catch (Exception e) {
-            Log.d(BleManager.LOG_TAG, "onCharacteristicChanged ERROR: " + e);
+            BleLog.d("onCharacteristicChanged ERROR: " + e);
+        }
+    }
+
+    private void sendCharacteristicValue(String service, String characteristic, byte[] bytes, int offset, int length,
+                                         int encoding) {
+        NotificationBatcher batcher = bleManager.getNotificationBatcher();
+        if (batcher != null) {
+            batcher.add(device.getAddress(), service, characteristic, bytes, offset, length, encoding);
+            return;
+        }
+
+        WritableMap map = Arguments.createMap();
+        map.putString("peripheral", device.getAddress());
+        map.putString("characteristic", characteristic);
+        map.putString("service", service);
+        NotifyEncoding.putValue(map, "value", bytes, offset, length, encoding);
+        sendEvent("BleManagerDidUpdateValueForCharacteristic", map);
+    }
+
+    // Sends a partial frame once it has been waiting for flushTimeout ms
+    private void scheduleBufferFlush(String key, NotifyBufferContainer buffer,
+                                     NotifyBufferContainer.FrameListener listener) {
+        if (buffer.flushTimeout == 0) {
+            return;
+        }
+        synchronized (buffer) {
+            if (buffer.size() == 0 || buffer.flushScheduled) {
+                return;
+            }
+            buffer.flushScheduled = true;
         }
+        getHandler().postDelayed(() -> {
+            synchronized (buffer) {
+                buffer.flushScheduled = false;
+                if (this.bufferedCharacteristics.get(key) == buffer) {
+                    buffer.flush(listener);
+                }
+            }
+        }, buffer.flushTimeout);
     }
 
     @Override
     public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         super.onCharacteristicRead(gatt, characteristic, status);
+        BleLog.trace("characteristicRead", device.getAddress(), characteristic.getUuid(), status,
+                characteristic.getValue() != null ? characteristic.getValue().length : 0);
 
-        mainHandler.post(() -> {
+        getHandler().post(() -> {
+            GattCommand command = runningCommand(GattCommand.READ, characteristic);
+            if (command == null) {
+                BleLog.d("onCharacteristicRead with no read of " + characteristic.getUuid() + " pending");
+                return;
+            }
             if (status != BluetoothGatt.GATT_SUCCESS) {
                 if (status == GATT_AUTH_FAIL || status == GATT_INSUFFICIENT_AUTHENTICATION) {
-                    Log.d(BleManager.LOG_TAG, "Read needs bonding");
+                    BleLog.d("Read needs bonding");
                 }
-
-				for (Callback readCallback: readCallbacks) {
-					readCallback.invoke(
-							"Error reading " + characteristic.getUuid() + " status=" + status,
-							null
-					);
-				}
-				readCallbacks.clear();
-			} else if (!readCallbacks.isEmpty()) {
-				final byte[] dataValue = copyOf(characteristic.getValue());
-
-				for (Callback readCallback: readCallbacks) {
-					readCallback.invoke(null, BleManager.bytesToWritableArray(dataValue));
-				}
-				readCallbacks.clear();
-			}
-			completedCommand();
-		});
+                failCommand(command, "Error reading " + characteristic.getUuid() + " status=" + status, null);
+            } else {
+                final byte[] dataValue = copyOf(characteristic.getValue());
+                completeCommand(command, null, BleManager.bytesToWritableArray(dataValue));
+            }
+        });
 
     }
 
     @Override
     public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         super.onCharacteristicWrite(gatt, characteristic, status);
+        BleLog.trace("characteristicWrite", device.getAddress(), characteristic.getUuid(), status, 0);
 
-		mainHandler.post(() -> {
-			if (writeQueue.size() > 0) {
-				byte[] data = writeQueue.get(0);
-				writeQueue.remove(0);
-				doWrite(characteristic, data, null);
-			} else if (status != BluetoothGatt.GATT_SUCCESS) {
-				if (status == GATT_AUTH_FAIL || status == GATT_INSUFFICIENT_AUTHENTICATION) {
-					Log.d(BleManager.LOG_TAG, "Write needs bonding");
-					// *not* doing completedCommand()
-					return;
-				}
-				for (Callback writeCallback: writeCallbacks) {
-					writeCallback.invoke("Error writing " + characteristic.getUuid() + " status=" + status, null);
-				}
-				writeCallbacks.clear();
-			} else if (!writeCallbacks.isEmpty()) {
-				for (Callback writeCallback: writeCallbacks) {
-					writeCallback.invoke();
-				}
-				writeCallbacks.clear();
-			}
-			completedCommand();
-		});
-	}
-
-	@Override
-	public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-		mainHandler.post(() -> {
-			if (!registerNotifyCallbacks.isEmpty()) {
-				if (status == BluetoothGatt.GATT_SUCCESS) {
-					for (Callback registerNotifyCallback: registerNotifyCallbacks) {
-						registerNotifyCallback.invoke();
-					}
-					Log.d(BleManager.LOG_TAG, "onDescriptorWrite success");
-				} else {
-					for (Callback registerNotifyCallback: registerNotifyCallbacks) {
-						registerNotifyCallback.invoke("Error writing descriptor status=" + status, null);
-					}
-					Log.e(BleManager.LOG_TAG, "Error writing descriptor status=" + status);
-				}
+        getHandler().post(() -> {
+            GattCommand command = runningCommand(GattCommand.WRITE);
+            if (command == null || currentWrite == null || currentWriteCharacteristic != characteristic) {
+                BleLog.d("onCharacteristicWrite with no write in progress");
+                return;
+            }
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                if (status == GATT_AUTH_FAIL || status == GATT_INSUFFICIENT_AUTHENTICATION) {
+                    BleLog.d("Write needs bonding");
+                    // *not* completing the command
+                    return;
+                }
+                finishWrite(command, "Error writing " + characteristic.getUuid() + " status=" + status);
+                return;
+            }
 
-                registerNotifyCallbacks.clear();
+            // the timeout applies to each chunk, a long write is not failed while its chunks keep being acknowledged
+            armWatchdog(command);
+            if (currentWrite.writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                    && Build.VERSION.SDK_INT < Build.VERSION_CODES.Q && currentWrite.chunkInterval > 0
+                    && currentWrite.hasNextChunk()) {
+                // no flow control for write without response before Android 10, give the stack some time
+                getHandler().postDelayed(writeNextChunkRunnable, currentWrite.chunkInterval);
             } else {
-                Log.e(BleManager.LOG_TAG, "onDescriptorWrite with no callback");
+                writeNextChunk();
             }
+        });
+    }
 
-            completedCommand();
+    @Override
+    public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        BleLog.trace("descriptorWrite", device.getAddress(), descriptor.getCharacteristic().getUuid(), status, 0);
+        getHandler().post(() -> {
+            GattCommand command = runningCommand(GattCommand.REGISTER_NOTIFY, descriptor);
+            if (command == null) {
+                BleLog.e("onDescriptorWrite with no callback");
+                return;
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                BleLog.d("onDescriptorWrite success");
+                completeCommand(command);
+            } else {
+                BleLog.e("Error writing descriptor status=" + status);
+                failCommand(command, "Error writing descriptor status=" + status, null);
+            }
         });
     }
 
     @Override
     public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
         super.onDescriptorRead(gatt, descriptor, status);
+        BleLog.trace("descriptorRead", device.getAddress(), descriptor.getCharacteristic().getUuid(), status, 0);
 
-        mainHandler.post(() -> {
+        getHandler().post(() -> {
+            GattCommand command = runningCommand(GattCommand.READ_DESCRIPTOR, descriptor);
+            if (command == null) {
+                BleLog.d("onDescriptorRead with no read of " + descriptor.getUuid() + " pending");
+                return;
+            }
             if (status != BluetoothGatt.GATT_SUCCESS) {
                 if (status == GATT_AUTH_FAIL || status == GATT_INSUFFICIENT_AUTHENTICATION) {
-                    Log.d(BleManager.LOG_TAG, "Read needs bonding");
+                    BleLog.d("Read needs bonding");
                 }
-
-                for (Callback readDescriptorCallback : readDescriptorCallbacks) {
-                    readDescriptorCallback.invoke(
-                            "Error reading descriptor " + descriptor.getUuid() + " status=" + status,
-                            null
-                    );
-                }
-                readDescriptorCallbacks.clear();
-            } else if (!readDescriptorCallbacks.isEmpty()) {
+                failCommand(command, "Error reading descriptor " + descriptor.getUuid() + " status=" + status, null);
+            } else {
                 final byte[] dataValue = copyOf(descriptor.getValue());
-
-                for (Callback readDescriptorCallback : readDescriptorCallbacks) {
-                    readDescriptorCallback.invoke(
-                            null,
-                            BleManager.bytesToWritableArray(dataValue)
-                    );
-                }
-
-                readDescriptorCallbacks.clear();
+                completeCommand(command, null, BleManager.bytesToWritableArray(dataValue));
             }
-            completedCommand();
         });
     }
 
     @Override
     public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
         super.onReadRemoteRssi(gatt, rssi, status);
+        BleLog.trace("readRemoteRssi", device.getAddress(), null, status, 0);
 
-		mainHandler.post(() -> {
-			if (!readRSSICallbacks.isEmpty()) {
-				if (status == BluetoothGatt.GATT_SUCCESS) {
-					updateRssi(rssi);
-					for (Callback readRSSICallback: readRSSICallbacks) {
-						readRSSICallback.invoke(null, rssi);
-					}
-				} else {
-					for (Callback readRSSICallback: readRSSICallbacks) {
-						readRSSICallback.invoke("Error reading RSSI status=" + status, null);
-					}
-				}
-
-                readRSSICallbacks.clear();
+        getHandler().post(() -> {
+            GattCommand command = runningCommand(GattCommand.READ_RSSI);
+            if (command == null) {
+                BleLog.d("onReadRemoteRssi with no read pending");
+                return;
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                updateRssi(rssi);
+                completeCommand(command, null, rssi);
+            } else {
+                failCommand(command, "Error reading RSSI status=" + status, null);
             }
-
-            completedCommand();
         });
     }
 
@@ -593,51 +617,45 @@ public class Peripheral extends BluetoothGattCallback {
 
     private void clearBuffers() {
         for (Map.Entry<String, NotifyBufferContainer> entry : this.bufferedCharacteristics.entrySet())
-            entry.getValue().resetBuffer();
+            metrics.onBufferDropped(entry.getValue().release());
     }
 
-    private void setNotify(UUID serviceUUID, UUID characteristicUUID, final Boolean notify, Callback callback) {
+    private void setNotify(UUID serviceUUID, UUID characteristicUUID, final Boolean notify, GattCommand command) {
         if (!isConnected() || gatt == null) {
-            callback.invoke("Device is not connected", null);
-            completedCommand();
+            failCommand(command, "Device is not connected", null);
             return;
         }
 
-        BluetoothGattService service = gatt.getService(serviceUUID);
-        final BluetoothGattCharacteristic characteristic = findNotifyCharacteristic(service, characteristicUUID);
+        final BluetoothGattCharacteristic characteristic = findNotifyCharacteristic(serviceUUID, characteristicUUID);
 
         if (characteristic == null) {
-            callback.invoke("Characteristic " + characteristicUUID + " not found");
-            completedCommand();
+            failCommand(command, "Characteristic " + characteristicUUID + " not found");
             return;
         }
 
         if (!gatt.setCharacteristicNotification(characteristic, notify)) {
-            callback.invoke("Failed to register notification for " + characteristicUUID);
-            completedCommand();
+            failCommand(command, "Failed to register notification for " + characteristicUUID);
             return;
         }
 
         final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUIDHelper.uuidFromString(CHARACTERISTIC_NOTIFICATION_CONFIG));
         if (descriptor == null) {
-            callback.invoke("Set notification failed for " + characteristicUUID);
-            completedCommand();
+            failCommand(command, "Set notification failed for " + characteristicUUID);
             return;
         }
 
         // Prefer notify over indicate
         byte[] value;
         if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
-            Log.d(BleManager.LOG_TAG, "Characteristic " + characteristicUUID + " set NOTIFY");
+            BleLog.d("Characteristic " + characteristicUUID + " set NOTIFY");
             value = notify ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
         } else if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0) {
-            Log.d(BleManager.LOG_TAG, "Characteristic " + characteristicUUID + " set INDICATE");
+            BleLog.d("Characteristic " + characteristicUUID + " set INDICATE");
             value = notify ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
         } else {
             String msg = "Characteristic " + characteristicUUID + " does not have NOTIFY or INDICATE property set";
-            Log.d(BleManager.LOG_TAG, msg);
-            callback.invoke(msg);
-            completedCommand();
+            BleLog.d(msg);
+            failCommand(command, msg);
             return;
         }
         final byte[] finalValue = notify ? value : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
@@ -647,133 +665,133 @@ public class Peripheral extends BluetoothGattCallback {
             result = gatt.setCharacteristicNotification(characteristic, notify);
             // Then write to descriptor
             descriptor.setValue(finalValue);
-            registerNotifyCallbacks.addLast(callback);
+            command.setTarget(descriptor);
             result &= gatt.writeDescriptor(descriptor);
         } catch (Exception e) {
-            Log.d(BleManager.LOG_TAG, "Exception in setNotify", e);
+            BleLog.d("Exception in setNotify", e);
         }
 
-		if (! result) {
-			for (Callback registerNotifyCallback: registerNotifyCallbacks) {
-				registerNotifyCallback.invoke("writeDescriptor failed for descriptor: " + descriptor.getUuid(), null);
-			}
-			registerNotifyCallbacks.clear();
-			completedCommand();
-		}
-	}
+        if (!result) {
+            failCommand(command, "writeDescriptor failed for descriptor: " + descriptor.getUuid(), null);
+        }
+    }
 
-    public void registerNotify(UUID serviceUUID, UUID characteristicUUID, Integer buffer, Callback callback) {
-        if (!enqueue(() -> {
-            Log.d(BleManager.LOG_TAG, "registerNotify");
-            if (buffer > 1) {
-                Log.d(BleManager.LOG_TAG, "registerNotify using buffer");
-                String bufferKey = this.bufferedCharacteristicsKey(serviceUUID.toString(), characteristicUUID.toString());
-                this.bufferedCharacteristics.put(bufferKey, new NotifyBufferContainer(buffer));
-            }
-            this.setNotify(serviceUUID, characteristicUUID, true, callback);
-        })) {
-            Log.e(BleManager.LOG_TAG, "Could not enqueue setNotify command to register notify");
+    public void registerNotify(UUID serviceUUID, UUID characteristicUUID, @Nullable NotifyBufferContainer buffer,
+                               int encoding, Callback callback) {
+        enqueue(registerNotifyCommand(serviceUUID, characteristicUUID, buffer, encoding, callback));
+    }
+
+    public void registerNotifyMany(GattBatch batch) {
+        List<GattCommand> commands = new ArrayList<>();
+        for (GattBatch.Operation operation : batch.getOperations()) {
+            commands.add(registerNotifyCommand(operation.serviceUUID, operation.characteristicUUID, null,
+                    NotifyEncoding.ARRAY, operation.callback));
         }
+        enqueueAll(commands);
+    }
+
+    private GattCommand registerNotifyCommand(UUID serviceUUID, UUID characteristicUUID,
+                                              @Nullable NotifyBufferContainer buffer, int encoding, Callback callback) {
+        return new GattCommand(GattCommand.REGISTER_NOTIFY, GattCommand.PRIORITY_DEFAULT, bleManager.getCommandTimeout(), command -> {
+            BleLog.d("registerNotify");
+            String bufferKey = this.bufferedCharacteristicsKey(serviceUUID.toString(), characteristicUUID.toString());
+            if (buffer != null) {
+                BleLog.d("registerNotify using buffer");
+                NotifyBufferContainer previous = this.bufferedCharacteristics.put(bufferKey, buffer);
+                if (previous != null) {
+                    metrics.onBufferDropped(previous.release());
+                }
+            }
+            this.frameListeners.remove(bufferKey);
+            if (encoding != NotifyEncoding.ARRAY) {
+                this.notifyEncodings.put(bufferKey, encoding);
+            } else {
+                this.notifyEncodings.remove(bufferKey);
+            }
+            this.setNotify(serviceUUID, characteristicUUID, true, command);
+        }, callback);
     }
 
     public void removeNotify(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
-        if (!enqueue(() -> {
-            Log.d(BleManager.LOG_TAG, "removeNotify");
+        enqueue(new GattCommand(GattCommand.REGISTER_NOTIFY, GattCommand.PRIORITY_DEFAULT, bleManager.getCommandTimeout(), command -> {
+            BleLog.d("removeNotify");
             String bufferKey = this.bufferedCharacteristicsKey(serviceUUID.toString(), characteristicUUID.toString());
-            if (this.bufferedCharacteristics.containsKey(bufferKey)) {
-                NotifyBufferContainer buffer = this.bufferedCharacteristics.get(bufferKey);
-                this.bufferedCharacteristics.remove(bufferKey);
+            NotifyBufferContainer buffer = this.bufferedCharacteristics.remove(bufferKey);
+            if (buffer != null) {
+                metrics.onBufferDropped(buffer.release());
             }
-            this.setNotify(serviceUUID, characteristicUUID, false, callback);
-        })) {
-            Log.e(BleManager.LOG_TAG, "Could not enqueue setNotify command to remove notify");
-        }
+            this.frameListeners.remove(bufferKey);
+            this.notifyEncodings.remove(bufferKey);
+            this.setNotify(serviceUUID, characteristicUUID, false, command);
+        }, callback));
     }
 
     // Some devices reuse UUIDs across characteristics, so we can't use
     // service.getCharacteristic(characteristicUUID)
-    // instead check the UUID and properties for each characteristic in the service
-    // until we find the best match
     // This function prefers Notify over Indicate
-    private BluetoothGattCharacteristic findNotifyCharacteristic(BluetoothGattService service,
-                                                                 UUID characteristicUUID) {
-
-        try {
-            // Check for Notify first
-            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
-            for (BluetoothGattCharacteristic characteristic : characteristics) {
-                if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0
-                        && characteristicUUID.equals(characteristic.getUuid())) {
-                    return characteristic;
-                }
-            }
+    private BluetoothGattCharacteristic findNotifyCharacteristic(UUID serviceUUID, UUID characteristicUUID) {
+        CharacteristicIndex index = getCharacteristicIndex();
+        BluetoothGattCharacteristic characteristic = index.find(serviceUUID, characteristicUUID,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY);
+        if (characteristic == null) {
+            characteristic = index.find(serviceUUID, characteristicUUID, BluetoothGattCharacteristic.PROPERTY_INDICATE);
+        }
+        // As a last resort, take ANY characteristic with this UUID, even if it
+        // doesn't have the correct properties
+        return characteristic != null ? characteristic : index.find(serviceUUID, characteristicUUID);
+    }
 
-            // If there wasn't Notify Characteristic, check for Indicate
-            for (BluetoothGattCharacteristic characteristic : characteristics) {
-                if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0
-                        && characteristicUUID.equals(characteristic.getUuid())) {
-                    return characteristic;
-                }
-            }
+    public void read(UUID serviceUUID, UUID characteristicUUID, int priority, final Callback callback) {
+        enqueue(readCommand(serviceUUID, characteristicUUID, priority, callback));
+    }
 
-            // As a last resort, try and find ANY characteristic with this UUID, even if it
-            // doesn't have the correct properties
-            return service.getCharacteristic(characteristicUUID);
-        } catch (Exception e) {
-            Log.e(BleManager.LOG_TAG, "Error retriving characteristic " + characteristicUUID, e);
-            return null;
+    public void readMany(GattBatch batch) {
+        List<GattCommand> commands = new ArrayList<>();
+        for (GattBatch.Operation operation : batch.getOperations()) {
+            commands.add(readCommand(operation.serviceUUID, operation.characteristicUUID,
+                    GattCommand.PRIORITY_DEFAULT, operation.callback));
         }
+        enqueueAll(commands);
     }
 
-    public void read(UUID serviceUUID, UUID characteristicUUID, final Callback callback) {
-        enqueue(() -> {
+    private GattCommand readCommand(UUID serviceUUID, UUID characteristicUUID, int priority, final Callback callback) {
+        return new GattCommand(GattCommand.READ, priority, bleManager.getCommandTimeout(), command -> {
             if (!isConnected() || gatt == null) {
-                callback.invoke("Device is not connected", null);
-                completedCommand();
+                failCommand(command, "Device is not connected", null);
                 return;
             }
 
-            BluetoothGattService service = gatt.getService(serviceUUID);
-            final BluetoothGattCharacteristic characteristic = findReadableCharacteristic(service, characteristicUUID);
+            final BluetoothGattCharacteristic characteristic = findReadableCharacteristic(serviceUUID, characteristicUUID);
 
             if (characteristic == null) {
-                callback.invoke("Characteristic " + characteristicUUID + " not found.", null);
-                completedCommand();
+                failCommand(command, "Characteristic " + characteristicUUID + " not found.", null);
                 return;
             }
 
-			this.readCallbacks.addLast(callback);
-			if (!gatt.readCharacteristic(characteristic)) {
-				for (Callback readCallback: readCallbacks) {
-					readCallback.invoke("Read failed", null);
-				}
-				readCallbacks.clear();
-				completedCommand();
-			}
-		});
-	}
+            command.setTarget(characteristic);
+            if (!gatt.readCharacteristic(characteristic)) {
+                failCommand(command, "Read failed", null);
+            }
+        }, callback);
+    }
 
     public void readDescriptor(UUID serviceUUID, UUID characteristicUUID, UUID descriptorUUID, final Callback callback) {
-        enqueue(() -> {
+        enqueue(new GattCommand(GattCommand.READ_DESCRIPTOR, GattCommand.PRIORITY_DEFAULT, bleManager.getCommandTimeout(), command -> {
             if (!isConnected() || gatt == null) {
-                callback.invoke("Device is not connected", null);
-                completedCommand();
+                failCommand(command, "Device is not connected", null);
                 return;
             }
 
-            BluetoothGattService service = gatt.getService(serviceUUID);
-            final BluetoothGattCharacteristic characteristic = findReadableCharacteristic(service, characteristicUUID);
+            final BluetoothGattCharacteristic characteristic = findReadableCharacteristic(serviceUUID, characteristicUUID);
 
             if (characteristic == null) {
-                callback.invoke("Characteristic " + characteristicUUID + " not found.", null);
-                completedCommand();
+                failCommand(command, "Characteristic " + characteristicUUID + " not found.", null);
                 return;
             }
 
             final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(descriptorUUID);
             if (descriptor == null) {
-                callback.invoke("Read descriptor failed for " + descriptorUUID, null);
-                completedCommand();
+                failCommand(command, "Read descriptor failed for " + descriptorUUID, null);
                 return;
             }
 
@@ -781,20 +799,15 @@ public class Peripheral extends BluetoothGattCallback {
                 | BluetoothGattDescriptor.PERMISSION_READ_ENCRYPTED
                 | BluetoothGattDescriptor.PERMISSION_READ_ENCRYPTED_MITM;
             if ((descriptor.getPermissions() & readPermissionBitMask) != 0) {
-                callback.invoke("Read descriptor failed for " + descriptorUUID + ": Descriptor is missing read permission", null);
-                completedCommand();
+                failCommand(command, "Read descriptor failed for " + descriptorUUID + ": Descriptor is missing read permission", null);
                 return;
             }
 
-            this.readDescriptorCallbacks.addLast(callback);
+            command.setTarget(descriptor);
             if (!gatt.readDescriptor(descriptor)) {
-                for (Callback readDescriptorCallback: readDescriptorCallbacks) {
-                    readDescriptorCallback.invoke("Reading descriptor failed", null);
-                }
-                readDescriptorCallbacks.clear();
-                completedCommand();
+                failCommand(command, "Reading descriptor failed", null);
             }
-        });
+        }, callback));
     }
 
     private byte[] copyOf(byte[] source) {
@@ -805,352 +818,392 @@ public class Peripheral extends BluetoothGattCallback {
         return copy;
     }
 
-    private boolean enqueue(Runnable command) {
-        final boolean result = commandQueue.add(command);
-        if (result) {
-            nextCommand();
-        } else {
-            Log.d(BleManager.LOG_TAG, "could not enqueue command");
-        }
-        return result;
+    private void enqueue(GattCommand command) {
+        command.queued(metrics);
+        commandQueue.add(command);
+        nextCommand();
     }
 
-    private void completedCommand() {
-        commandQueue.poll();
-        commandQueueBusy = false;
+    // Queues commands back to back in their lane
+    private void enqueueAll(List<GattCommand> commands) {
+        for (GattCommand command : commands) {
+            command.queued(metrics);
+        }
+        commandQueue.addAll(commands);
         nextCommand();
     }
 
-    private void nextCommand() {
-        synchronized (this) {
-            if (commandQueueBusy) {
-                Log.d(BleManager.LOG_TAG, "Command queue busy");
+    // Returns the running command if it is of the given type, GATT callbacks use it to find who to answer
+    @Nullable
+    private GattCommand runningCommand(int type) {
+        GattCommand command = currentCommand.get();
+        return command != null && command.type == type ? command : null;
+    }
+
+    // Same for callbacks about an attribute: the late answer to a timed out command must not complete the
+    // next command of its type
+    @Nullable
+    private GattCommand runningCommand(int type, Object attribute) {
+        GattCommand command = runningCommand(type);
+        return command != null && command.targets(attribute) ? command : null;
+    }
+
+    private void completeCommand(GattCommand command, Object... args) {
+        command.complete(args);
+        finishCommand(command);
+    }
+
+    private void failCommand(GattCommand command, Object... args) {
+        command.fail(args);
+        finishCommand(command);
+    }
+
+    private void finishCommand(GattCommand command) {
+        getHandler().removeCallbacksAndMessages(command);
+        if (currentCommand.compareAndSet(command, null)) {
+            nextCommand();
+        }
+    }
+
+    // Fails the running command and everything still queued, each command only answers its own callback
+    private void failAllCommands(String error) {
+        getHandler().removeCallbacks(writeNextChunkRunnable);
+        currentWrite = null;
+        currentWriteCharacteristic = null;
+        failingError = error;
+        while (true) {
+            GattCommand running = currentCommand.get();
+            if (running == CLAIMED || running == FAILING) {
+                // another thread is taking a command from the queue, it drains the queue when it lets go
+                if (running == FAILING || currentCommand.compareAndSet(CLAIMED, FAILING)) {
+                    return;
+                }
+            } else if (currentCommand.compareAndSet(running, CLAIMED)) {
+                // the claim keeps other threads from polling the queue while it is drained
+                if (running != null) {
+                    getHandler().removeCallbacksAndMessages(running);
+                    running.fail(error);
+                }
+                drainQueue(error);
+                releaseClaim(null);
+                // commands queued after the drain were not started while the claim was held
+                nextCommand();
                 return;
             }
+        }
+    }
 
-            final Runnable nextCommand = commandQueue.peek();
-            if (nextCommand == null) {
-                Log.d(BleManager.LOG_TAG, "Command queue empty");
-                return;
+    private void drainQueue(String error) {
+        GattCommand command;
+        while ((command = commandQueue.poll()) != null) {
+            command.fail(error);
+        }
+    }
+
+    // Hands the claim over to next, or to no command. Returns false when failAllCommands() marked the claim
+    // FAILING meanwhile: the queue is drained and next is failed instead of started.
+    private boolean releaseClaim(@Nullable GattCommand next) {
+        boolean started = true;
+        while (!currentCommand.compareAndSet(CLAIMED, next)) {
+            currentCommand.set(CLAIMED);
+            String error = failingError;
+            if (next != null) {
+                next.fail(error);
+                next = null;
+                started = false;
+            }
+            drainQueue(error);
+        }
+        return started;
+    }
+
+    // Starts the head of the queue unless a command is already running. Only the thread that moves
+    // currentCommand from null to CLAIMED takes a command from the queue, so no lock is needed. Whoever
+    // holds the claim gives it up through releaseClaim(), which also finishes a drain left by failAllCommands().
+    private void nextCommand() {
+        while (currentCommand.compareAndSet(null, CLAIMED)) {
+            final GattCommand command = commandQueue.poll();
+            if (command == null) {
+                releaseClaim(null);
+                if (commandQueue.isEmpty()) {
+                    BleLog.d("Command queue empty");
+                    return;
+                }
+                // a command was queued while we held the claim
+                continue;
             }
 
             // Check if we still have a valid gatt object
             if (gatt == null) {
-                Log.d(BleManager.LOG_TAG, "Error, gatt is null");
-                commandQueue.clear();
-                commandQueueBusy = false;
-                return;
+                BleLog.d("Error, gatt is null");
+                releaseClaim(null);
+                command.fail("BluetoothGatt is null", null);
+                continue;
+            }
+
+            if (!command.start()) {
+                // settled while waiting in the queue
+                releaseClaim(null);
+                continue;
             }
 
             // Execute the next command in the queue
-            commandQueueBusy = true;
-            mainHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        nextCommand.run();
-                    } catch (Exception ex) {
-                        Log.d(BleManager.LOG_TAG, "Error, command exception");
-                        completedCommand();
-                    }
+            if (!releaseClaim(command)) {
+                continue;
+            }
+            armWatchdog(command);
+            BleLog.trace(command.getName(), device.getAddress(), null, 0, 0);
+            getHandler().post(() -> {
+                try {
+                    command.run();
+                } catch (Exception ex) {
+                    BleLog.d("Error, command exception", ex);
+                    failCommand(command, "Command failed: " + ex.getMessage(), null);
                 }
             });
+            return;
         }
     }
 
-	public void readRSSI(final Callback callback) {
-		if (!enqueue(() -> {
-			if (!isConnected()) {
-				callback.invoke("Device is not connected", null);
-				completedCommand();
-				return;
-			} else if (gatt == null) {
-				callback.invoke("BluetoothGatt is null", null);
-				completedCommand();
-				return;
-			} else {
-				readRSSICallbacks.addLast(callback);
-				if (!gatt.readRemoteRssi()) {
-					for (Callback readRSSICallback: readRSSICallbacks) {
-						readRSSICallback.invoke("Read RSSI failed", null);
-					}
-					readRSSICallbacks.clear();
-					completedCommand();
-				}
-			}
-		})) {
-			Log.d(BleManager.LOG_TAG, "Could not queue readRemoteRssi command");
-		}
-	}
+    // (Re)starts the watchdog of the running command. The command is the token of its watchdog,
+    // finishCommand() cancels it.
+    private void armWatchdog(GattCommand command) {
+        if (command.timeout > 0) {
+            getHandler().removeCallbacksAndMessages(command);
+            getHandler().postAtTime(() -> onCommandTimeout(command), command,
+                    SystemClock.uptimeMillis() + command.timeout);
+        }
+    }
+
+    // The stack never answered the running command, fail it so the queue doesn't stall until disconnect
+    private void onCommandTimeout(GattCommand command) {
+        if (currentCommand.get() != command
+                || !command.timeOut("Command " + command.getName() + " timed out after " + command.timeout + " ms", null)) {
+            return;
+        }
+        BleLog.w("Command " + command.getName() + " timed out on peripheral: " + device.getAddress());
+        BleLog.trace("timeout", device.getAddress(), null, 0, command.timeout);
+        if (command.type == GattCommand.WRITE) {
+            getHandler().removeCallbacks(writeNextChunkRunnable);
+            currentWrite = null;
+            currentWriteCharacteristic = null;
+        }
+
+        WritableMap map = Arguments.createMap();
+        map.putString("peripheral", device.getAddress());
+        map.putString("command", command.getName());
+        map.putInt("timeout", command.timeout);
+        sendEvent("BleManagerCommandTimeout", map);
+
+        finishCommand(command);
+    }
+
+    public void readRSSI(int priority, final Callback callback) {
+        enqueue(new GattCommand(GattCommand.READ_RSSI, priority, bleManager.getCommandTimeout(), command -> {
+            if (!isConnected()) {
+                failCommand(command, "Device is not connected", null);
+            } else if (gatt == null) {
+                failCommand(command, "BluetoothGatt is null", null);
+            } else if (!gatt.readRemoteRssi()) {
+                failCommand(command, "Read RSSI failed", null);
+            }
+        }, callback));
+    }
 
     public void refreshCache(Callback callback) {
-        enqueue(() -> {
+        enqueue(new GattCommand(GattCommand.REFRESH_CACHE, GattCommand.PRIORITY_DEFAULT, bleManager.getCommandTimeout(), command -> {
+            // the services have to be retrieved again after a refresh
+            characteristicIndex = null;
             try {
-                Method localMethod = gatt.getClass().getMethod("refresh",  new Class[0]);
-                if (localMethod != null) {
-                    boolean res = ((Boolean) localMethod.invoke(gatt, new Object[0])).booleanValue();
-                    callback.invoke(null, res);
+                if (gatt != null) {
+                    completeCommand(command, null, gatt.refresh());
                 } else {
-                    callback.invoke("Could not refresh cache for device.");
+                    failCommand(command, "Could not refresh cache for device.");
                 }
             } catch (Exception localException) {
-                Log.e(TAG, "An exception occured while refreshing device");
-                callback.invoke(localException.getMessage());
-            } finally {
-                completedCommand();
+                BleLog.e("An exception occured while refreshing device");
+                failCommand(command, localException.getMessage());
             }
-        });
+        }, callback));
     }
 
-    public void retrieveServices(Callback callback) {
-        enqueue(() -> {
+    public void retrieveServices(boolean compact, Callback callback) {
+        enqueue(new GattCommand(GattCommand.RETRIEVE_SERVICES, GattCommand.PRIORITY_DEFAULT, bleManager.getCommandTimeout(), command -> {
+            retrieveServicesCompact = compact;
             if (!isConnected()) {
-                callback.invoke("Device is not connected", null);
-                completedCommand();
-                return;
+                failCommand(command, "Device is not connected", null);
             } else if (gatt == null) {
-                callback.invoke("BluetoothGatt is null", null);
-                completedCommand();
-                return;
-            } else {
-                this.retrieveServicesCallbacks.addLast(callback);
-                gatt.discoverServices();
+                failCommand(command, "BluetoothGatt is null", null);
+            } else if (!gatt.discoverServices()) {
+                failCommand(command, "Discover services failed", null);
             }
-        });
+        }, callback));
     }
 
     // Some peripherals re-use UUIDs for multiple characteristics so we need to
-    // check the properties
-    // and UUID of all characteristics instead of using
+    // check the properties of the characteristic instead of using
     // service.getCharacteristic(characteristicUUID)
-    private BluetoothGattCharacteristic findReadableCharacteristic(BluetoothGattService service,
-                                                                   UUID characteristicUUID) {
-
-        if (service != null) {
-            int read = BluetoothGattCharacteristic.PROPERTY_READ;
+    private BluetoothGattCharacteristic findReadableCharacteristic(UUID serviceUUID, UUID characteristicUUID) {
+        CharacteristicIndex index = getCharacteristicIndex();
+        BluetoothGattCharacteristic characteristic = index.find(serviceUUID, characteristicUUID,
+                BluetoothGattCharacteristic.PROPERTY_READ);
+        // As a last resort, take ANY characteristic with this UUID, even if it
+        // doesn't have the correct properties
+        return characteristic != null ? characteristic : index.find(serviceUUID, characteristicUUID);
+    }
 
-            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
-            for (BluetoothGattCharacteristic characteristic : characteristics) {
-                if ((characteristic.getProperties() & read) != 0
-                        && characteristicUUID.equals(characteristic.getUuid())) {
-                    return characteristic;
-                }
-            }
+    public void write(UUID serviceUUID, UUID characteristicUUID, byte[] data, Integer maxByteSize, Integer queueSleepTime, int priority, Callback callback, int writeType) {
+        enqueue(writeCommand(serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime, priority, callback, writeType));
+    }
 
-            // As a last resort, try and find ANY characteristic with this UUID, even if it
-            // doesn't have the correct properties
-            return service.getCharacteristic(characteristicUUID);
+    public void writeMany(GattBatch batch) {
+        List<GattCommand> commands = new ArrayList<>();
+        for (GattBatch.Operation operation : batch.getOperations()) {
+            commands.add(writeCommand(operation.serviceUUID, operation.characteristicUUID, operation.data,
+                    operation.maxByteSize, operation.queueSleepTime, GattCommand.PRIORITY_DEFAULT,
+                    operation.callback, operation.writeType));
         }
-
-        return null;
+        enqueueAll(commands);
     }
 
-	public boolean doWrite(final BluetoothGattCharacteristic characteristic, byte[] data, final Callback callback) {
-		final byte[] copyOfData = copyOf(data);
-		return enqueue(new Runnable() {
-			@Override
-			public void run() {
-				characteristic.setValue(copyOfData);
-				if (
-					characteristic.getWriteType() == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
-					&& callback != null
-				) {
-					writeCallbacks.addLast(callback);
-				}
-				if (!gatt.writeCharacteristic(characteristic)) {
-					// write without response, caller will handle the callback
-					for (Callback writeCallback: writeCallbacks) {
-						writeCallback.invoke("Write failed", writeCallback);
-					}
-					writeCallbacks.clear();
-					completedCommand();
-				}
-			}
-		});
-	}
-
-    public void write(UUID serviceUUID, UUID characteristicUUID, byte[] data, Integer maxByteSize, Integer queueSleepTime, Callback callback, int writeType) {
-        enqueue(() -> {
+    private GattCommand writeCommand(UUID serviceUUID, UUID characteristicUUID, byte[] data, Integer maxByteSize,
+                                     Integer queueSleepTime, int priority, Callback callback, int writeType) {
+        return new GattCommand(GattCommand.WRITE, priority, bleManager.getCommandTimeout(), command -> {
             if (!isConnected() || gatt == null) {
-                callback.invoke("Device is not connected", null);
-                completedCommand();
+                failCommand(command, "Device is not connected", null);
                 return;
             }
 
-            BluetoothGattService service = gatt.getService(serviceUUID);
-            BluetoothGattCharacteristic characteristic = findWritableCharacteristic(service, characteristicUUID, writeType);
+            BluetoothGattCharacteristic characteristic = findWritableCharacteristic(serviceUUID, characteristicUUID, writeType);
 
             if (characteristic == null) {
-                callback.invoke("Characteristic " + characteristicUUID + " not found.");
-                completedCommand();
+                failCommand(command, "Characteristic " + characteristicUUID + " not found.");
                 return;
             }
 
             characteristic.setWriteType(writeType);
+            currentWrite = new ChunkedWrite(data, maxByteSize, writeType,
+                    queueSleepTime != null ? queueSleepTime : 0);
+            currentWriteCharacteristic = characteristic;
+            writeNextChunk();
+        }, callback);
+    }
 
-            if (data.length <= maxByteSize) {
-                if (!doWrite(characteristic, data, callback)) {
-                    callback.invoke("Write failed");
-                } else {
-                    if (BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE == writeType) {
-                        callback.invoke();
-                    }
-                }
-            } else {
-                int dataLength = data.length;
-                int count = 0;
-                byte[] firstMessage = null;
-                List<byte[]> splittedMessage = new ArrayList<>();
-
-                while (count < dataLength && (dataLength - count > maxByteSize)) {
-                    if (count == 0) {
-                        firstMessage = Arrays.copyOfRange(data, count, count + maxByteSize);
-                    } else {
-                        byte[] splitMessage = Arrays.copyOfRange(data, count, count + maxByteSize);
-                        splittedMessage.add(splitMessage);
-                    }
-                    count += maxByteSize;
-                }
-                if (count < dataLength) {
-                    // Other bytes in queue
-                    byte[] splitMessage = Arrays.copyOfRange(data, count, data.length);
-                    splittedMessage.add(splitMessage);
-                }
+    // Writes the next chunk of the current write, the following one is sent from onCharacteristicWrite
+    private void writeNextChunk() {
+        GattCommand command = runningCommand(GattCommand.WRITE);
+        if (command == null || currentWrite == null) {
+            return;
+        }
+        if (!currentWrite.hasNextChunk()) {
+            finishWrite(command, null);
+            return;
+        }
+        if (gatt == null) {
+            finishWrite(command, "BluetoothGatt is null");
+            return;
+        }
 
-                if (BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT == writeType) {
-                    writeQueue.addAll(splittedMessage);
-                    if (!doWrite(characteristic, firstMessage, callback)) {
-                        writeQueue.clear();
-                        callback.invoke("Write failed");
-                    }
-                } else {
-                    try {
-                        boolean writeError = false;
-                        if (!doWrite(characteristic, firstMessage, callback)) {
-                            writeError = true;
-                            callback.invoke("Write failed");
-                        }
-                        if (!writeError) {
-                            Thread.sleep(queueSleepTime);
-                            for (byte[] message : splittedMessage) {
-                                if (!doWrite(characteristic, message, callback)) {
-                                    writeError = true;
-                                    callback.invoke("Write failed");
-                                    break;
-                                }
-                                Thread.sleep(queueSleepTime);
-                            }
-                            if (!writeError) {
-                                callback.invoke();
-                            }
-                        }
-                    } catch (InterruptedException e) {
-                        callback.invoke("Error during writing");
-                    }
-                }
-            }
+        currentWriteCharacteristic.setValue(currentWrite.nextChunk());
+        if (!gatt.writeCharacteristic(currentWriteCharacteristic)) {
+            finishWrite(command, "Write failed");
+        }
+    }
 
-            completedCommand();
-        });
+    private void finishWrite(GattCommand command, @Nullable String error) {
+        currentWrite = null;
+        currentWriteCharacteristic = null;
+        if (error != null) {
+            failCommand(command, error);
+        } else {
+            completeCommand(command);
+        }
     }
 
     public void requestConnectionPriority(int connectionPriority, Callback callback) {
-        enqueue(() -> {
+        enqueue(new GattCommand(GattCommand.REQUEST_CONNECTION_PRIORITY, GattCommand.PRIORITY_DEFAULT, bleManager.getCommandTimeout(), command -> {
             if (gatt != null) {
                 if (Build.VERSION.SDK_INT >= LOLLIPOP) {
                     boolean status = gatt.requestConnectionPriority(connectionPriority);
-                    callback.invoke(null, status);
+                    completeCommand(command, null, status);
                 } else {
-                    callback.invoke("Requesting connection priority requires at least API level 21", null);
+                    failCommand(command, "Requesting connection priority requires at least API level 21", null);
                 }
             } else {
-                callback.invoke("BluetoothGatt is null", null);
+                failCommand(command, "BluetoothGatt is null", null);
             }
-
-            completedCommand();
-        });
+        }, callback));
     }
 
     public void requestMTU(int mtu, Callback callback) {
-        enqueue(() -> {
+        enqueue(new GattCommand(GattCommand.REQUEST_MTU, GattCommand.PRIORITY_DEFAULT, bleManager.getCommandTimeout(), command -> {
             if (!isConnected()) {
-                callback.invoke("Device is not connected", null);
-                completedCommand();
+                failCommand(command, "Device is not connected", null);
                 return;
             }
 
             if (gatt == null) {
-                callback.invoke("BluetoothGatt is null", null);
-                completedCommand();
+                failCommand(command, "BluetoothGatt is null", null);
                 return;
             }
 
-			if (Build.VERSION.SDK_INT >= LOLLIPOP) {
-				requestMTUCallbacks.addLast(callback);
-				if (!gatt.requestMtu(mtu)) {
-					for (Callback requestMTUCallback: requestMTUCallbacks) {
-						requestMTUCallback.invoke("Request MTU failed", null);
-					}
-					requestMTUCallbacks.clear();
-					completedCommand();
-				}
-			} else {
-				callback.invoke("Requesting MTU requires at least API level 21", null);
-				completedCommand();
-			}
-		});
-	}
-
-	@Override
-	public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-		super.onMtuChanged(gatt, mtu, status);
-		mainHandler.post(() -> {
-			if (!requestMTUCallbacks.isEmpty()) {
-				if (status == BluetoothGatt.GATT_SUCCESS) {
-					for (Callback requestMTUCallback: requestMTUCallbacks) {
-						requestMTUCallback.invoke(null, mtu);
-					}
-				} else {
-					for (Callback requestMTUCallback: requestMTUCallbacks) {
-						requestMTUCallback.invoke("Error requesting MTU status = " + status, null);
-					}
-				}
-
-                requestMTUCallbacks.clear();
+            if (Build.VERSION.SDK_INT >= LOLLIPOP) {
+                if (!gatt.requestMtu(mtu)) {
+                    failCommand(command, "Request MTU failed", null);
+                }
+            } else {
+                failCommand(command, "Requesting MTU requires at least API level 21", null);
             }
+        }, callback));
+    }
 
-            completedCommand();
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        super.onMtuChanged(gatt, mtu, status);
+        BleLog.trace("mtuChanged", device.getAddress(), null, status, mtu);
+        getHandler().post(() -> {
+            GattCommand command = runningCommand(GattCommand.REQUEST_MTU);
+            if (command == null) {
+                BleLog.d("onMtuChanged with no request pending");
+                return;
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                completeCommand(command, null, mtu);
+            } else {
+                failCommand(command, "Error requesting MTU status = " + status, null);
+            }
         });
     }
 
     // Some peripherals re-use UUIDs for multiple characteristics so we need to
-    // check the properties
-    // and UUID of all characteristics instead of using
+    // check the properties of the characteristic instead of using
     // service.getCharacteristic(characteristicUUID)
-    private BluetoothGattCharacteristic findWritableCharacteristic(BluetoothGattService service,
-                                                                   UUID characteristicUUID, int writeType) {
-        try {
-            // get write property
-            int writeProperty = BluetoothGattCharacteristic.PROPERTY_WRITE;
-            if (writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) {
-                writeProperty = BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE;
-            }
+    private BluetoothGattCharacteristic findWritableCharacteristic(UUID serviceUUID, UUID characteristicUUID,
+                                                                   int writeType) {
+        // get write property
+        int writeProperty = BluetoothGattCharacteristic.PROPERTY_WRITE;
+        if (writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) {
+            writeProperty = BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE;
+        }
 
-            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
-            for (BluetoothGattCharacteristic characteristic : characteristics) {
-                if ((characteristic.getProperties() & writeProperty) != 0
-                        && characteristicUUID.equals(characteristic.getUuid())) {
-                    return characteristic;
-                }
-            }
+        CharacteristicIndex index = getCharacteristicIndex();
+        BluetoothGattCharacteristic characteristic = index.find(serviceUUID, characteristicUUID, writeProperty);
+        // As a last resort, take ANY characteristic with this UUID, even if it
+        // doesn't have the correct properties
+        return characteristic != null ? characteristic : index.find(serviceUUID, characteristicUUID);
+    }
 
-            // As a last resort, try and find ANY characteristic with this UUID, even if it
-            // doesn't have the correct properties
-            return service.getCharacteristic(characteristicUUID);
-        } catch (Exception e) {
-            Log.e(BleManager.LOG_TAG, "Error on findWritableCharacteristic", e);
-            return null;
+    // Index of the discovered characteristics, built on first use if the services were discovered
+    // by someone else than onServicesDiscovered (e.g. a cached gatt)
+    private CharacteristicIndex getCharacteristicIndex() {
+        CharacteristicIndex index = characteristicIndex;
+        if (index == null) {
+            index = new CharacteristicIndex(gatt.getServices());
+            if (!index.isEmpty()) {
+                characteristicIndex = index;
+            }
         }
+        return index;
     }
 
     private String generateHashKey(BluetoothGattCharacteristic characteristic) {
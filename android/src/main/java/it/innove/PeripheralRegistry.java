@@ -0,0 +1,305 @@
+package it.innove;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The peripherals known to BleManager, by address.
+ *
+ * Lookups and updates don't lock, so scan results never hold up the command paths looking up a peripheral,
+ * and iteration works on a snapshot.
+ *
+ * Peripherals that are neither connected, connecting nor still holding a gatt are evicted, least recently seen first, when the
+ * registry holds more than capacity peripherals, and once they were not seen for ttl ms.
+ * A capacity or ttl of 0 disables that bound. Evictions are counted per reason. Eviction runs on the
+ * thread adding a peripheral, one thread at a time; a capacity eviction frees a tenth of the capacity
+ * at once so its cost is spread over the following additions.
+ *
+ * Every addition and removal takes the next sequence number, so changesSince() can tell what changed after
+ * a given sequence number. Only the last MAX_REMOVALS removals are remembered, a caller further behind
+ * gets every peripheral again.
+ */
+public class PeripheralRegistry {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int MAX_REMOVALS = 1024;
+
+    // Told when a peripheral instance enters or leaves the registry, also when it replaces another one
+    public interface Listener {
+        void onAdded(Peripheral peripheral);
+
+        void onRemoved(Peripheral peripheral);
+    }
+
+    public static class Changes {
+        public final long sequence;
+        // true when removals were forgotten, peripherals then holds every peripheral
+        public final boolean reset;
+        public final List<Peripheral> peripherals;
+        public final List<String> removed;
+
+        Changes(long sequence, boolean reset, List<Peripheral> peripherals, List<String> removed) {
+            this.sequence = sequence;
+            this.reset = reset;
+            this.peripherals = peripherals;
+            this.removed = removed;
+        }
+    }
+
+    private static class Entry {
+        final Peripheral peripheral;
+        final long lastSeen;
+        final long sequence;
+
+        Entry(Peripheral peripheral, long lastSeen, long sequence) {
+            this.peripheral = peripheral;
+            this.lastSeen = lastSeen;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class Removal {
+        final String address;
+        final long sequence;
+
+        Removal(String address, long sequence) {
+            this.address = address;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Map.Entry<String, Entry>> BY_LAST_SEEN =
+            (a, b) -> Long.compare(a.getValue().lastSeen, b.getValue().lastSeen);
+    private static final Comparator<Entry> BY_SEQUENCE = (a, b) -> Long.compare(a.sequence, b.sequence);
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Listener listener;
+    private volatile int capacity = DEFAULT_CAPACITY;
+    private volatile long ttl = 0;
+    private volatile long lastTtlSweep = 0;
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final AtomicLong capacityEvictions = new AtomicLong();
+    private final AtomicLong ttlEvictions = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Deque<Removal> removals = new ArrayDeque<>();
+    // sequence number of the last removal dropped from removals
+    private long forgottenRemovals = 0;
+
+    public PeripheralRegistry(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void configure(int capacity, long ttl) {
+        this.capacity = Math.max(0, capacity);
+        this.ttl = Math.max(0, ttl);
+        evict(SystemClock.elapsedRealtime());
+    }
+
+    @Nullable
+    public Peripheral get(String address) {
+        Entry entry = entries.get(address);
+        return entry != null ? entry.peripheral : null;
+    }
+
+    // Adds or replaces the peripheral and marks it as just seen
+    public void put(Peripheral peripheral) {
+        long now = SystemClock.elapsedRealtime();
+        Entry previous = entries.put(peripheral.getDevice().getAddress(),
+                new Entry(peripheral, now, sequence.incrementAndGet()));
+        if (previous == null || previous.peripheral != peripheral) {
+            listener.onAdded(peripheral);
+            if (previous != null) {
+                listener.onRemoved(previous.peripheral);
+            }
+        }
+        evict(now);
+    }
+
+    // Adds the peripheral unless one is known with its address, that one is then marked as just seen.
+    // Returns the peripheral in the registry, callers must carry on with it.
+    public Peripheral putIfAbsent(Peripheral peripheral) {
+        long now = SystemClock.elapsedRealtime();
+        String address = peripheral.getDevice().getAddress();
+        while (true) {
+            Entry existing = entries.putIfAbsent(address, new Entry(peripheral, now, sequence.incrementAndGet()));
+            if (existing == null) {
+                listener.onAdded(peripheral);
+                evict(now);
+                return peripheral;
+            }
+            // fails when the entry was removed or seen again meanwhile, the next round sees the current one
+            if (entries.replace(address, existing,
+                    new Entry(existing.peripheral, now, sequence.incrementAndGet()))) {
+                return existing.peripheral;
+            }
+        }
+    }
+
+    @Nullable
+    public Peripheral remove(String address) {
+        Entry entry = entries.remove(address);
+        if (entry == null) {
+            return null;
+        }
+        onRemoved(address, entry.peripheral);
+        return entry.peripheral;
+    }
+
+    // Removes every peripheral that is neither connected, connecting nor holding a gatt
+    public void removeDisconnected() {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (isEvictable(entry.getValue().peripheral)) {
+                removeEntry(entry);
+            }
+        }
+    }
+
+    public void clear() {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            removeEntry(entry);
+        }
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    // A snapshot of the peripherals, least recently seen first
+    public List<Peripheral> values() {
+        evict(SystemClock.elapsedRealtime());
+        List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+        Collections.sort(snapshot, BY_LAST_SEEN);
+        List<Peripheral> peripherals = new ArrayList<>(snapshot.size());
+        for (Map.Entry<String, Entry> entry : snapshot) {
+            peripherals.add(entry.getValue().peripheral);
+        }
+        return peripherals;
+    }
+
+    // What was added, updated or removed after the given sequence number
+    public Changes changesSince(long since) {
+        // read first, anything changing while the entries are walked is sent again on the next call
+        long current = sequence.get();
+        boolean reset;
+        List<String> removed = new ArrayList<>();
+        synchronized (removals) {
+            reset = since <= 0 || since > current || since < forgottenRemovals;
+            if (!reset) {
+                for (Removal removal : removals) {
+                    if (removal.sequence > since) {
+                        removed.add(removal.address);
+                    }
+                }
+            }
+        }
+
+        evict(SystemClock.elapsedRealtime());
+        List<Entry> changed = new ArrayList<>();
+        Set<String> present = new HashSet<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            present.add(entry.getKey());
+            if (reset || entry.getValue().sequence > since) {
+                changed.add(entry.getValue());
+            }
+        }
+        Collections.sort(changed, BY_SEQUENCE);
+        List<Peripheral> peripherals = new ArrayList<>(changed.size());
+        for (Entry entry : changed) {
+            peripherals.add(entry.peripheral);
+        }
+        // a peripheral removed then seen again is only reported as changed
+        List<String> gone = new ArrayList<>(removed.size());
+        for (String address : new HashSet<>(removed)) {
+            if (!present.contains(address)) {
+                gone.add(address);
+            }
+        }
+        return new Changes(current, reset, peripherals, gone);
+    }
+
+    public long getCapacityEvictions() {
+        return capacityEvictions.get();
+    }
+
+    public long getTtlEvictions() {
+        return ttlEvictions.get();
+    }
+
+    private void evict(long now) {
+        long ttl = this.ttl;
+        int capacity = this.capacity;
+        boolean sweep = ttl > 0 && now - lastTtlSweep >= Math.max(1000, ttl / 4);
+        boolean overCapacity = capacity > 0 && entries.size() > capacity;
+        if (!(sweep || overCapacity) || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (sweep) {
+                lastTtlSweep = now;
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    if (now - entry.getValue().lastSeen >= ttl && isEvictable(entry.getValue().peripheral)
+                            && removeEntry(entry)) {
+                        ttlEvictions.incrementAndGet();
+                    }
+                }
+            }
+
+            int excess = entries.size() - capacity;
+            if (capacity > 0 && excess > 0) {
+                List<Map.Entry<String, Entry>> candidates = new ArrayList<>();
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    if (isEvictable(entry.getValue().peripheral)) {
+                        candidates.add(entry);
+                    }
+                }
+                Collections.sort(candidates, BY_LAST_SEEN);
+                int count = Math.min(candidates.size(), excess + capacity / 10);
+                for (int i = 0; i < count; i++) {
+                    if (removeEntry(candidates.get(i))) {
+                        capacityEvictions.incrementAndGet();
+                    }
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    // Removes the entry unless the peripheral was seen again in the meantime
+    private boolean removeEntry(Map.Entry<String, Entry> entry) {
+        if (entries.remove(entry.getKey(), entry.getValue())) {
+            onRemoved(entry.getKey(), entry.getValue().peripheral);
+            return true;
+        }
+        return false;
+    }
+
+    private void onRemoved(String address, Peripheral peripheral) {
+        synchronized (removals) {
+            removals.addLast(new Removal(address, sequence.incrementAndGet()));
+            if (removals.size() > MAX_REMOVALS) {
+                forgottenRemovals = removals.removeFirst().sequence;
+            }
+        }
+        listener.onRemoved(peripheral);
+    }
+
+    private static boolean isEvictable(Peripheral peripheral) {
+        // a peripheral disconnecting without force keeps its gatt until STATE_DISCONNECTED, it must be closed
+        return !(peripheral.isConnected() || peripheral.isConnecting() || peripheral.hasGatt());
+    }
+}
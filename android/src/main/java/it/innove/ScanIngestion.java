@@ -0,0 +1,86 @@
+package it.innove;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Processes scan results on a dedicated background thread instead of the main thread.
+ *
+ * Results waiting to be processed are kept per device: a newer result for a device replaces the one still
+ * waiting, so a chatty peripheral never grows the queue. At most capacity devices wait at once, results of
+ * other devices are dropped until the thread catches up, they are seen again on their next advertisement.
+ */
+public class ScanIngestion {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final HandlerThread thread = new HandlerThread("BleManagerScan");
+    private final Handler handler;
+    private final int capacity;
+    private final BleMetrics metrics;
+
+    private final Map<String, Runnable> pending = new LinkedHashMap<>();
+    private boolean draining = false;
+    private long dropped = 0;
+
+    private final Runnable drainRunnable = this::drain;
+
+    public ScanIngestion(int capacity, BleMetrics metrics) {
+        this.capacity = Math.max(1, capacity);
+        this.metrics = metrics;
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    public Handler getHandler() {
+        return handler;
+    }
+
+    public void submit(String address, Runnable task) {
+        metrics.onScanResult();
+        synchronized (pending) {
+            if (!pending.containsKey(address) && pending.size() >= capacity) {
+                metrics.onScanResultDropped();
+                if (dropped++ % 100 == 0) {
+                    BleLog.d("Scan queue full, dropped " + dropped + " results");
+                }
+                return;
+            }
+            // replacing keeps the position of the device in the queue
+            pending.put(address, task);
+            if (!draining) {
+                draining = true;
+                handler.post(drainRunnable);
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            List<Runnable> tasks;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+                tasks = new ArrayList<>(pending.values());
+                pending.clear();
+            }
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    public void shutdown() {
+        synchronized (pending) {
+            pending.clear();
+        }
+        thread.quitSafely();
+    }
+}
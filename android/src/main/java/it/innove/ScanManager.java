@@ -19,11 +19,19 @@ public abstract class ScanManager {
     protected ReactContext reactContext;
     protected BleManager bleManager;
     protected AtomicInteger scanSessionId = new AtomicInteger();
+    // replaced on every scan, see ScanThrottle
+    protected volatile ScanThrottle scanThrottle = new ScanThrottle(true, 0, 0);
+    protected final ScanIngestion scanIngestion;
+    // null unless the scan was started with discoverBatchInterval
+    protected volatile DiscoveryBatcher discoveryBatcher;
+    // AdvertisingFields mask of the advertising data sent with discovered peripherals
+    protected volatile int advertisingFields = AdvertisingFields.ALL;
 
     public ScanManager(ReactApplicationContext reactContext, BleManager bleManager) {
         context = reactContext;
         this.reactContext = reactContext;
         this.bleManager = bleManager;
+        scanIngestion = new ScanIngestion(bleManager.getScanQueueSize(), bleManager.getMetrics());
     }
 
     protected BluetoothAdapter getBluetoothAdapter() {
@@ -36,5 +44,45 @@ public abstract class ScanManager {
 
     public abstract void stopScan(Callback callback);
 
-    public abstract void scan(ReadableArray serviceUUIDs, final int scanSeconds, ReadableMap options, Callback callback);
+    // Reads the reporting options of a scan that is starting, throws IllegalArgumentException if one is invalid
+    protected void configureReporting(boolean allowDuplicates, ReadableMap options) {
+        int fields = AdvertisingFields.fromArray(
+                options.hasKey("advertisingFields") ? options.getArray("advertisingFields") : null);
+        flushDiscoveries();
+        advertisingFields = fields;
+        scanThrottle = ScanThrottle.fromOptions(allowDuplicates, options);
+        if (options.hasKey("discoverBatchInterval") && options.getInt("discoverBatchInterval") > 0) {
+            discoveryBatcher = new DiscoveryBatcher(bleManager, scanIngestion.getHandler(),
+                    options.getInt("discoverBatchInterval"), fields);
+        } else {
+            discoveryBatcher = null;
+        }
+    }
+
+    // Called on the scan thread for every peripheral that passed the ScanThrottle
+    protected void reportPeripheral(Peripheral peripheral) {
+        bleManager.getMetrics().onScanResultReported();
+        DiscoveryBatcher batcher = discoveryBatcher;
+        if (batcher != null) {
+            batcher.add(peripheral);
+        } else {
+            bleManager.sendEvent("BleManagerDiscoverPeripheral", peripheral.asWritableMap(advertisingFields));
+        }
+    }
+
+    // Emits what the current batch holds once the results already received are processed
+    protected void flushDiscoveries() {
+        final DiscoveryBatcher batcher = discoveryBatcher;
+        if (batcher != null) {
+            scanIngestion.getHandler().post(batcher::flush);
+        }
+    }
+
+    // Stops the scan result thread, the scan manager can't be used afterwards
+    public void shutdown() {
+        scanIngestion.shutdown();
+    }
+
+    public abstract void scan(ReadableArray serviceUUIDs, final int scanSeconds, boolean allowDuplicates,
+                              ReadableMap options, Callback callback);
 }
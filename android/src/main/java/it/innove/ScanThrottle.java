@@ -0,0 +1,83 @@
+package it.innove;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableMap;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decides which advertisements of a scan are reported to JS with BleManagerDiscoverPeripheral.
+ *
+ * The first advertisement of a device is always reported. After that a device is reported again:
+ * - if reportRssiDelta is set, only when its payload changed or its RSSI moved by at least reportRssiDelta dB,
+ * - otherwise, with allowDuplicates, on every advertisement,
+ * - otherwise only when its payload changed,
+ * and never less than minReportInterval ms after its previous report.
+ *
+ * Suppressed advertisements still update the peripheral, only the event is skipped.
+ *
+ * At most MAX_DEVICES devices are remembered, the least recently seen is forgotten first and is
+ * reported again like a new device if it shows up later.
+ */
+public class ScanThrottle {
+
+    private static class DeviceState {
+        long lastReport;
+        int rssi;
+        byte[] payload;
+    }
+
+    public static final int MAX_DEVICES = 1024;
+
+    private final boolean allowDuplicates;
+    private final int minReportInterval;
+    private final int reportRssiDelta;
+    // access ordered, the eldest entry is the least recently seen device
+    private final Map<String, DeviceState> devices = new LinkedHashMap<String, DeviceState>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DeviceState> eldest) {
+            return size() > MAX_DEVICES;
+        }
+    };
+
+    public ScanThrottle(boolean allowDuplicates, int minReportInterval, int reportRssiDelta) {
+        this.allowDuplicates = allowDuplicates;
+        this.minReportInterval = Math.max(0, minReportInterval);
+        this.reportRssiDelta = Math.max(0, reportRssiDelta);
+    }
+
+    public static ScanThrottle fromOptions(boolean allowDuplicates, ReadableMap options) {
+        return new ScanThrottle(allowDuplicates,
+                options.hasKey("minReportInterval") ? options.getInt("minReportInterval") : 0,
+                options.hasKey("reportRssiDelta") ? options.getInt("reportRssiDelta") : 0);
+    }
+
+    public synchronized boolean shouldReport(String address, int rssi, @Nullable byte[] payload, long now) {
+        DeviceState state = devices.get(address);
+        if (state == null) {
+            state = new DeviceState();
+            devices.put(address, state);
+        } else {
+            if (now - state.lastReport < minReportInterval) {
+                return false;
+            }
+            boolean payloadChanged = !Arrays.equals(payload, state.payload);
+            boolean report;
+            if (reportRssiDelta > 0) {
+                report = payloadChanged || Math.abs(rssi - state.rssi) >= reportRssiDelta;
+            } else {
+                report = allowDuplicates || payloadChanged;
+            }
+            if (!report) {
+                return false;
+            }
+        }
+        state.lastReport = now;
+        state.rssi = rssi;
+        state.payload = payload;
+        return true;
+    }
+}
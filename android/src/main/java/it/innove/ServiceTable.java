@@ -0,0 +1,140 @@
+package it.innove;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.util.Base64;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The services and characteristics of a peripheral as sent to JS by retrieveServices.
+ *
+ * The serialized table is kept between calls together with a signature of everything it was built from
+ * (UUIDs, instance ids, properties, permissions and descriptor values), it is only rebuilt when a new
+ * discovery or a descriptor write changed the signature. Otherwise the cached table is merged into the
+ * result, which copies it without walking the services again.
+ *
+ * In compact mode properties and permissions are sent as the Android bitmasks instead of string maps.
+ */
+public class ServiceTable {
+
+    private final boolean compact;
+    private WritableMap table;
+    private long signature;
+
+    public ServiceTable(boolean compact) {
+        this.compact = compact;
+    }
+
+    // Adds the services and characteristics arrays to map
+    public synchronized void putInto(WritableMap map, List<BluetoothGattService> services) {
+        long currentSignature = signature(services);
+        if (table == null || currentSignature != signature) {
+            table = build(services);
+            signature = currentSignature;
+        }
+        map.merge(table);
+    }
+
+    private WritableMap build(List<BluetoothGattService> services) {
+        WritableArray servicesArray = Arguments.createArray();
+        WritableArray characteristicsArray = Arguments.createArray();
+
+        for (BluetoothGattService service : services) {
+            String serviceUUID = UUIDHelper.uuidToString(service.getUuid());
+            WritableMap serviceMap = Arguments.createMap();
+            serviceMap.putString("uuid", serviceUUID);
+
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                WritableMap characteristicsMap = Arguments.createMap();
+
+                characteristicsMap.putString("service", serviceUUID);
+                characteristicsMap.putString("characteristic", UUIDHelper.uuidToString(characteristic.getUuid()));
+
+                if (compact) {
+                    characteristicsMap.putInt("properties", characteristic.getProperties());
+                } else {
+                    characteristicsMap.putMap("properties", Helper.decodeProperties(characteristic));
+                }
+
+                if (characteristic.getPermissions() > 0) {
+                    if (compact) {
+                        characteristicsMap.putInt("permissions", characteristic.getPermissions());
+                    } else {
+                        characteristicsMap.putMap("permissions", Helper.decodePermissions(characteristic));
+                    }
+                }
+
+                WritableArray descriptorsArray = Arguments.createArray();
+
+                for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                    WritableMap descriptorMap = Arguments.createMap();
+                    descriptorMap.putString("uuid", UUIDHelper.uuidToString(descriptor.getUuid()));
+                    if (descriptor.getValue() != null) {
+                        descriptorMap.putString("value",
+                                Base64.encodeToString(descriptor.getValue(), Base64.NO_WRAP));
+                    } else {
+                        descriptorMap.putString("value", null);
+                    }
+
+                    if (descriptor.getPermissions() > 0) {
+                        if (compact) {
+                            descriptorMap.putInt("permissions", descriptor.getPermissions());
+                        } else {
+                            descriptorMap.putMap("permissions", Helper.decodePermissions(descriptor));
+                        }
+                    }
+                    descriptorsArray.pushMap(descriptorMap);
+                }
+                if (descriptorsArray.size() > 0) {
+                    characteristicsMap.putArray("descriptors", descriptorsArray);
+                }
+                characteristicsArray.pushMap(characteristicsMap);
+            }
+            servicesArray.pushMap(serviceMap);
+        }
+
+        WritableMap result = Arguments.createMap();
+        result.putArray("services", servicesArray);
+        result.putArray("characteristics", characteristicsArray);
+        return result;
+    }
+
+    private static long signature(List<BluetoothGattService> services) {
+        long hash = services.size();
+        for (BluetoothGattService service : services) {
+            hash = mix(hash, service.getUuid());
+            hash = mix(hash, service.getInstanceId());
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                hash = mix(hash, characteristic.getUuid());
+                hash = mix(hash, characteristic.getInstanceId());
+                hash = mix(hash, characteristic.getProperties());
+                hash = mix(hash, characteristic.getPermissions());
+                for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                    hash = mix(hash, descriptor.getUuid());
+                    hash = mix(hash, descriptor.getPermissions());
+                    byte[] value = descriptor.getValue();
+                    hash = mix(hash, value != null ? Arrays.hashCode(value) : -1);
+                    hash = mix(hash, value != null ? value.length : -1);
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, UUID uuid) {
+        return mix(mix(hash, uuid.getMostSignificantBits()), uuid.getLeastSignificantBits());
+    }
+
+    // FNV-1a style step over a whole long
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+}
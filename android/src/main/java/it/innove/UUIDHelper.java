@@ -1,33 +1,71 @@
 package it.innove;
 
+import java.util.Map;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class UUIDHelper {
 
 	// base UUID used to build 128 bit Bluetooth UUIDs
 	public static final String UUID_BASE = "0000XXXX-0000-1000-8000-00805f9b34fb";
 
+	// 0000XXXX-0000-1000-8000-00805f9b34fb as bits, XXXX being the 16 bit UUID
+	private static final long BASE_LEAST_SIG_BITS = 0x800000805f9b34fbL;
+	private static final long BASE_MOST_SIG_BITS = 0x0000000000001000L;
+	private static final long BASE_MOST_SIG_BITS_MASK = 0xFFFF0000FFFFFFFFL;
+
+	// The same few UUIDs are parsed and formatted over and over, both ways are cached.
+	// The caches are simply emptied when full, which only happens with a lot of different peripherals around.
+	private static final int MAX_CACHED = 512;
+	private static final Map<String, UUID> parsed = new ConcurrentHashMap<>();
+	private static final Map<UUID, String> formatted = new ConcurrentHashMap<>();
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
 	// handle 16 and 128 bit UUIDs
 	public static UUID uuidFromString(String uuid) {
-
-		if (uuid.length() == 4) {
-			uuid = UUID_BASE.replace("XXXX", uuid);
+		UUID result = parsed.get(uuid);
+		if (result == null) {
+			String longUUID = uuid;
+			if (uuid.length() == 4) {
+				longUUID = UUID_BASE.replace("XXXX", uuid);
+			}
+			result = UUID.fromString(longUUID);
+			cache(parsed, uuid, result);
 		}
-		return UUID.fromString(uuid);
+		return result;
 	}
 
 	// return 16 bit UUIDs where possible
 	public static String uuidToString(UUID uuid) {
-		String longUUID = uuid.toString();
-		Pattern pattern = Pattern.compile("0000(.{4})-0000-1000-8000-00805f9b34fb", Pattern.CASE_INSENSITIVE);
-		Matcher matcher = pattern.matcher(longUUID);
-		if (matcher.matches()) {
-			// 16 bit UUID
-			return matcher.group(1);
-		} else {
-			return longUUID;
+		String result = formatted.get(uuid);
+		if (result == null) {
+			result = isBaseUUID(uuid) ? shortUUID(uuid) : uuid.toString();
+			cache(formatted, uuid, result);
+		}
+		return result;
+	}
+
+	static boolean isBaseUUID(UUID uuid) {
+		return uuid.getLeastSignificantBits() == BASE_LEAST_SIG_BITS
+				&& (uuid.getMostSignificantBits() & BASE_MOST_SIG_BITS_MASK) == BASE_MOST_SIG_BITS;
+	}
+
+	// the XXXX of the base UUID, lowercase like UUID.toString()
+	private static String shortUUID(UUID uuid) {
+		int value = (int) (uuid.getMostSignificantBits() >>> 32) & 0xFFFF;
+		char[] chars = new char[4];
+		for (int i = 3; i >= 0; i--) {
+			chars[i] = HEX_DIGITS[value & 0xF];
+			value >>>= 4;
+		}
+		return new String(chars);
+	}
+
+	private static <K, V> void cache(Map<K, V> cache, K key, V value) {
+		if (cache.size() >= MAX_CACHED) {
+			cache.clear();
 		}
+		cache.put(key, value);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package it.innove;
+
+import org.junit.Test;
+
+import static org.junit.Assert.fail;
+
+public class BytesHelperTest {
+
+    private static void assertRejected(String data) {
+        try {
+            BytesHelper.checkBase64(data);
+            fail("accepted " + data);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void paddedBase64IsAccepted() {
+        BytesHelper.checkBase64("");
+        BytesHelper.checkBase64("AQID");
+        BytesHelper.checkBase64("AQI=");
+        BytesHelper.checkBase64("AQ==");
+        BytesHelper.checkBase64("+/09azAZ");
+    }
+
+    @Test
+    public void malformedBase64IsRejected() {
+        assertRejected("AQ");
+        assertRejected("AQ=D");
+        assertRejected("A===");
+        assertRejected("AQ\nI=");
+        assertRejected("AQ I");
+        assertRejected("AQ-_");
+        assertRejected("AQI*");
+    }
+}
@@ -0,0 +1,115 @@
+package it.innove;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GattCommandQueueTest {
+
+    private static GattCommand command(int priority) {
+        return new GattCommand(GattCommand.READ, priority, 0, c -> {
+        }, args -> {
+        });
+    }
+
+    @Test
+    public void higherPriorityFirstThenFifo() {
+        GattCommandQueue queue = new GattCommandQueue();
+        GattCommand bulk = command(GattCommand.PRIORITY_BULK);
+        GattCommand first = command(GattCommand.PRIORITY_DEFAULT);
+        GattCommand second = command(GattCommand.PRIORITY_DEFAULT);
+        GattCommand control = command(GattCommand.PRIORITY_CONTROL);
+        queue.add(bulk);
+        queue.add(first);
+        queue.add(second);
+        queue.add(control);
+
+        assertSame(control, queue.poll());
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+        assertSame(bulk, queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void passedOverLaneIsNotStarved() {
+        GattCommandQueue queue = new GattCommandQueue();
+        GattCommand bulk = command(GattCommand.PRIORITY_BULK);
+        queue.add(bulk);
+        for (int i = 0; i < GattCommandQueue.STARVATION_LIMIT; i++) {
+            queue.add(command(GattCommand.PRIORITY_CONTROL));
+            queue.poll();
+        }
+        queue.add(command(GattCommand.PRIORITY_CONTROL));
+        assertSame(bulk, queue.poll());
+    }
+
+    @Test
+    public void highestPriorityStarvedLaneGoesFirst() {
+        GattCommandQueue queue = new GattCommandQueue();
+        GattCommand bulk = command(GattCommand.PRIORITY_BULK);
+        GattCommand normal = command(GattCommand.PRIORITY_DEFAULT);
+        queue.add(bulk);
+        queue.add(normal);
+        for (int i = 0; i < GattCommandQueue.STARVATION_LIMIT; i++) {
+            queue.add(command(GattCommand.PRIORITY_CONTROL));
+            queue.poll();
+        }
+        queue.add(command(GattCommand.PRIORITY_CONTROL));
+        assertSame(normal, queue.poll());
+        assertSame(bulk, queue.poll());
+    }
+
+    @Test
+    public void batchesAreNotInterleavedWithConcurrentAdds() throws Exception {
+        GattCommandQueue queue = new GattCommandQueue();
+        Map<GattCommand, Integer> batchOf = new IdentityHashMap<>();
+        List<List<GattCommand>> batches = new ArrayList<>();
+        for (int b = 0; b < 200; b++) {
+            List<GattCommand> batch = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                GattCommand command = command(GattCommand.PRIORITY_DEFAULT);
+                batch.add(command);
+                batchOf.put(command, b);
+            }
+            batches.add(batch);
+        }
+        Thread batching = new Thread(() -> {
+            for (List<GattCommand> batch : batches) {
+                queue.addAll(batch);
+            }
+        });
+        Thread single = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                queue.add(command(GattCommand.PRIORITY_DEFAULT));
+            }
+        });
+        batching.start();
+        single.start();
+        batching.join();
+        single.join();
+
+        int polled = 0;
+        GattCommand command;
+        while ((command = queue.poll()) != null) {
+            polled++;
+            Integer batch = batchOf.get(command);
+            if (batch != null) {
+                for (int i = 1; i < 10; i++) {
+                    assertSame(batches.get(batch).get(i), queue.poll());
+                    polled++;
+                }
+            }
+        }
+        assertEquals(4000, polled);
+    }
+}
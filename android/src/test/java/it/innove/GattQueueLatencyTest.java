@@ -0,0 +1,138 @@
+package it.innove;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static it.innove.SimulatedPeripheralTest.CHARACTERISTIC;
+import static it.innove.SimulatedPeripheralTest.SERVICE;
+import static it.innove.SimulatedPeripheralTest.runUntil;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Queue latency harness: 1, 4 and 16 simulated peripherals each get a burst of writes, on a dedicated
+ * GATT thread per peripheral and on the shared main looper. The queue time of a command only depends on
+ * the commands ahead of it on its own peripheral, so it must not grow with the number of peripherals.
+ *
+ * Times are on the Robolectric virtual clock, they measure the queueing and not the host machine.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31, shadows = ShadowArguments.class, instrumentedPackages = "com.facebook.react.bridge")
+@LooperMode(LooperMode.Mode.PAUSED)
+public class GattQueueLatencyTest {
+
+    private static final int WRITES_PER_PERIPHERAL = 20;
+
+    private final List<SimulatedGattTransport.Factory> factories = new ArrayList<>();
+    private final List<GattThreadPool> pools = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (SimulatedGattTransport.Factory factory : factories) {
+            factory.shutdown();
+        }
+        for (GattThreadPool pool : pools) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void queueLatencyWithPeripheralThreads() throws Exception {
+        assertLatencyDoesNotGrow(GattThreadPool.MODE_PERIPHERAL);
+    }
+
+    @Test
+    public void queueLatencyOnMainLooper() throws Exception {
+        assertLatencyDoesNotGrow(GattThreadPool.MODE_MAIN);
+    }
+
+    private void assertLatencyDoesNotGrow(int mode) throws Exception {
+        double single = 0;
+        for (int count : new int[]{1, 4, 16}) {
+            ReadableMap write = run(mode, count).getMap("commands").getMap("write");
+            ReadableMap queueTime = write.getMap("queueTime");
+            System.out.println(String.format(Locale.US,
+                    "%s, %2d peripherals: queue p50 %.3f ms, p99 %.3f ms, completion p99 %.3f ms",
+                    mode == GattThreadPool.MODE_MAIN ? "main" : "peripheral", count, queueTime.getDouble("p50"),
+                    queueTime.getDouble("p99"), write.getMap("completionTime").getDouble("p99")));
+
+            assertEquals(count * WRITES_PER_PERIPHERAL, queueTime.getDouble("count"), 0);
+            assertEquals(0, write.getDouble("failures"), 0);
+            if (count == 1) {
+                single = queueTime.getDouble("p99");
+            } else {
+                // percentiles are power of two buckets, allow the next one up
+                assertTrue(queueTime.getDouble("p99") <= 2 * single);
+            }
+        }
+    }
+
+    // Connects count peripherals, writes to all of them at once and returns the metrics of their commands
+    private ReadableMap run(int mode, int count) throws Exception {
+        SimulatedGattTransport.Factory factory = new SimulatedGattTransport.Factory(
+                new SimulatedGattTransport.Config()
+                        .setConnectLatency(10)
+                        .setLatency(5, 2)
+                        .setNotifications(0, 0, 0)
+                        .addCharacteristic(SERVICE, CHARACTERISTIC, BluetoothGattCharacteristic.PROPERTY_WRITE));
+        factories.add(factory);
+        GattThreadPool pool = new GattThreadPool(mode, 0);
+        pools.add(pool);
+
+        ReactApplicationContext reactContext = mock(ReactApplicationContext.class);
+        when(reactContext.getJSModule(RCTNativeAppEventEmitter.class)).thenReturn((eventName, data) -> {
+        });
+        BleMetrics metrics = new BleMetrics();
+        BleManager bleManager = mock(BleManager.class);
+        when(bleManager.getReactContext()).thenReturn(reactContext);
+        when(bleManager.getMetrics()).thenReturn(metrics);
+        when(bleManager.getGattHandler(any(Peripheral.class)))
+                .thenAnswer(invocation -> pool.obtain(invocation.getArgument(0)));
+        when(bleManager.getGattTransportFactory()).thenReturn(factory);
+
+        List<Peripheral> peripherals = new ArrayList<>();
+        AtomicInteger connected = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            Peripheral peripheral = new Peripheral(BluetoothAdapter.getDefaultAdapter()
+                    .getRemoteDevice(String.format(Locale.US, "00:11:22:33:44:%02X", i)), bleManager);
+            peripheral.connect(args -> connected.incrementAndGet(), null);
+            peripherals.add(peripheral);
+        }
+        runUntil(() -> connected.get() == count, 1000);
+
+        AtomicInteger written = new AtomicInteger();
+        Callback callback = args -> written.incrementAndGet();
+        for (Peripheral peripheral : peripherals) {
+            for (int i = 0; i < WRITES_PER_PERIPHERAL; i++) {
+                peripheral.write(SERVICE, CHARACTERISTIC, new byte[]{(byte) i}, 20, null,
+                        GattCommand.PRIORITY_DEFAULT, callback, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            }
+        }
+        runUntil(() -> written.get() == count * WRITES_PER_PERIPHERAL, 5000);
+
+        for (Peripheral peripheral : peripherals) {
+            peripheral.disconnect(null, true);
+        }
+        return metrics.getGatt().toWritableMap(1);
+    }
+}
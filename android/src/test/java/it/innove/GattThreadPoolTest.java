@@ -0,0 +1,70 @@
+package it.innove;
+
+import android.bluetooth.BluetoothAdapter;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+public class GattThreadPoolTest {
+
+    @Test
+    public void sameConfigurationKeepsThePool() {
+        GattThreadPool main = new GattThreadPool(GattThreadPool.MODE_MAIN, 0);
+        assertTrue(main.hasConfiguration(GattThreadPool.MODE_MAIN, 4));
+        assertFalse(main.hasConfiguration(GattThreadPool.MODE_PERIPHERAL, 0));
+
+        GattThreadPool pool = new GattThreadPool(GattThreadPool.MODE_POOL, 2);
+        assertTrue(pool.hasConfiguration(GattThreadPool.MODE_POOL, 2));
+        assertFalse(pool.hasConfiguration(GattThreadPool.MODE_POOL, 3));
+        pool.shutdown();
+    }
+
+    private static Peripheral peripheral(String address) {
+        Peripheral peripheral = mock(Peripheral.class);
+        when(peripheral.getDevice()).thenReturn(BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address));
+        return peripheral;
+    }
+
+    @Test
+    public void peripheralModeGivesEachPeripheralItsThread() {
+        GattThreadPool pool = new GattThreadPool(GattThreadPool.MODE_PERIPHERAL, 0);
+        Peripheral peripheral = peripheral("00:11:22:33:44:55");
+        Handler first = pool.obtain(peripheral);
+        Handler second = pool.obtain(peripheral("00:11:22:33:44:66"));
+        assertNotSame(first.getLooper(), second.getLooper());
+        assertNotSame(Looper.getMainLooper(), first.getLooper());
+        assertSame(first.getLooper(), pool.obtain(peripheral).getLooper());
+        pool.shutdown();
+    }
+
+    @Test
+    public void releasingAReplacedPeripheralKeepsTheThreadOfItsSuccessor() throws Exception {
+        GattThreadPool pool = new GattThreadPool(GattThreadPool.MODE_PERIPHERAL, 0);
+        Peripheral removed = peripheral("00:11:22:33:44:55");
+        Peripheral added = peripheral("00:11:22:33:44:55");
+        Handler old = pool.obtain(removed);
+        Handler current = pool.obtain(added);
+        assertNotSame(old.getLooper(), current.getLooper());
+
+        pool.release(removed);
+        old.getLooper().getThread().join(1000);
+        assertFalse(old.getLooper().getThread().isAlive());
+        assertTrue(current.getLooper().getThread().isAlive());
+        assertTrue(current.post(() -> {
+        }));
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,37 @@
+package it.innove;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.WritableMap;
+
+import org.junit.Test;
+import org.mockito.MockedStatic;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mockStatic;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1_500_000); // 1.5 ms, bucket below 2048 us
+        }
+        histogram.record(100_000_000); // 100 ms
+        assertEquals(100, histogram.getCount());
+
+        try (MockedStatic<Arguments> arguments = mockStatic(Arguments.class)) {
+            arguments.when(Arguments::createMap).thenAnswer(invocation -> new JavaOnlyMap());
+            WritableMap map = histogram.toWritableMap();
+            assertEquals(100, map.getDouble("count"), 0);
+            assertEquals(2.048, map.getDouble("p50"), 0);
+            assertEquals(2.048, map.getDouble("p90"), 0);
+            assertEquals(2.048, map.getDouble("p99"), 0);
+            assertEquals(100, map.getDouble("max"), 0);
+        }
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+}
@@ -0,0 +1,88 @@
+package it.innove;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sustained notification load through NotifyBufferContainer: every frame is emitted from the same
+ * pooled array and nothing is allocated per frame once the container is set up.
+ */
+public class NotifyBufferAllocationTest {
+
+    private static final int FRAMES = 100_000;
+
+    private byte[] lastBuffer;
+    private int frames;
+    private final NotifyBufferContainer.FrameListener listener = (buffer, offset, length) -> {
+        lastBuffer = buffer;
+        frames++;
+    };
+
+    @Test
+    public void framesReuseOneBuffer() {
+        NotifyBufferContainer container = new NotifyBufferContainer(100);
+        byte[] value = new byte[20];
+        container.put(value, listener);
+        container.put(new byte[80], listener);
+        byte[] first = lastBuffer;
+        for (int i = 0; i < 50; i++) {
+            container.put(value, listener);
+        }
+        assertEquals(11, frames);
+        assertSame(first, lastBuffer);
+
+        // released arrays are handed to the next container of the same size class
+        container.release();
+        NotifyBufferContainer next = new NotifyBufferContainer(128);
+        next.put(new byte[128], listener);
+        assertSame(first, lastBuffer);
+        next.release();
+    }
+
+    @Test
+    public void noAllocationPerFrame() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        NotifyBufferContainer sized = new NotifyBufferContainer(100);
+        NotifyBufferContainer delimited = new NotifyBufferContainer(128, 0x0A, 0, 0);
+        NotifyBufferContainer prefixed = new NotifyBufferContainer(128, NotifyBufferContainer.NO_DELIMITER, 1, 0);
+        byte[] value = new byte[20];
+        byte[] delimitedValue = new byte[20];
+        delimitedValue[19] = 0x0A;
+        byte[] prefixedValue = new byte[20];
+        prefixedValue[0] = 19;
+
+        // warm up so the measured loop runs compiled code
+        load(sized, delimited, prefixed, value, delimitedValue, prefixedValue);
+        frames = 0;
+
+        long before = allocations.getThreadAllocatedBytes(thread);
+        load(sized, delimited, prefixed, value, delimitedValue, prefixedValue);
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(frames >= FRAMES);
+        // a few hundred bytes of noise from the MXBean itself is tolerated, one allocation per frame is not
+        assertTrue("Allocated " + allocated + " bytes for " + frames + " frames", allocated < 4096);
+    }
+
+    private void load(NotifyBufferContainer sized, NotifyBufferContainer delimited, NotifyBufferContainer prefixed,
+                      byte[] value, byte[] delimitedValue, byte[] prefixedValue) {
+        for (int i = 0; i < FRAMES / 2; i++) {
+            sized.put(value, listener);
+            delimited.put(delimitedValue, listener);
+            prefixed.put(prefixedValue, listener);
+        }
+    }
+}
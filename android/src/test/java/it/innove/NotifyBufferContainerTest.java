@@ -0,0 +1,139 @@
+package it.innove;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NotifyBufferContainerTest {
+
+    private final List<byte[]> frames = new ArrayList<>();
+    private final NotifyBufferContainer.FrameListener listener =
+            (buffer, offset, length) -> frames.add(Arrays.copyOfRange(buffer, offset, offset + length));
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    private void assertFrames(byte[]... expected) {
+        assertEquals(expected.length, frames.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Arrays.toString(expected[i]), Arrays.toString(frames.get(i)));
+        }
+    }
+
+    @Test
+    public void fixedSizeFramesKeepTheRemainder() {
+        NotifyBufferContainer container = new NotifyBufferContainer(4);
+        assertEquals(0, container.put(bytes(1, 2, 3), listener));
+        assertEquals(0, container.put(bytes(4, 5, 6, 7, 8, 9), listener));
+        assertFrames(bytes(1, 2, 3, 4), bytes(5, 6, 7, 8));
+        assertEquals(1, container.size());
+    }
+
+    @Test
+    public void delimiterEndsFrame() {
+        NotifyBufferContainer container = new NotifyBufferContainer(8, 0x0A, 0, 0);
+        container.put(bytes(1, 2, 0x0A, 3), listener);
+        container.put(bytes(4, 0x0A, 0x0A), listener);
+        assertFrames(bytes(1, 2), bytes(3, 4));
+        assertEquals(0, container.size());
+    }
+
+    @Test
+    public void delimiterFrameCutWhenBufferIsFull() {
+        NotifyBufferContainer container = new NotifyBufferContainer(3, 0x0A, 0, 0);
+        assertEquals(1, container.put(bytes(1, 2, 3, 4, 0x0A), listener));
+        assertFrames(bytes(1, 2, 3), bytes(4));
+        assertEquals(3, container.takeOverflowBytes());
+        assertEquals(0, container.takeOverflowBytes());
+    }
+
+    @Test
+    public void lengthPrefixFramesAcrossValues() {
+        NotifyBufferContainer container = new NotifyBufferContainer(8, NotifyBufferContainer.NO_DELIMITER, 1, 0);
+        container.put(bytes(3, 1), listener);
+        container.put(bytes(2, 3, 2, 4), listener);
+        container.put(bytes(5, 0), listener);
+        assertFrames(bytes(1, 2, 3), bytes(4, 5), bytes());
+    }
+
+    @Test
+    public void twoBytesLengthPrefixIsLittleEndian() {
+        NotifyBufferContainer container = new NotifyBufferContainer(8, NotifyBufferContainer.NO_DELIMITER, 2, 0);
+        container.put(bytes(2, 0, 7, 8), listener);
+        assertFrames(bytes(7, 8));
+    }
+
+    @Test
+    public void oversizedPrefixedFrameIsCutAndItsRestSkipped() {
+        NotifyBufferContainer container = new NotifyBufferContainer(4, NotifyBufferContainer.NO_DELIMITER, 1, 0);
+        assertEquals(1, container.put(bytes(10, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 2, 7, 7), listener));
+        assertFrames(bytes(1, 2, 3), bytes(7, 7));
+        assertEquals(7, container.takeOverflowBytes());
+    }
+
+    @Test
+    public void oversizedPrefixedFrameSkippedAcrossValues() {
+        NotifyBufferContainer container = new NotifyBufferContainer(4, NotifyBufferContainer.NO_DELIMITER, 2, 0);
+        assertEquals(1, container.put(bytes(6, 0, 1, 2), listener));
+        container.put(bytes(3, 4), listener);
+        container.put(bytes(5, 6, 1, 0), listener);
+        container.put(bytes(9), listener);
+        assertFrames(bytes(1, 2), bytes(9));
+        assertEquals(4, container.takeOverflowBytes());
+    }
+
+    @Test
+    public void flushedPrefixedFrameRestIsSkipped() {
+        NotifyBufferContainer container = new NotifyBufferContainer(8, NotifyBufferContainer.NO_DELIMITER, 1, 0);
+        container.put(bytes(4, 1, 2), listener);
+        assertTrue(container.flush(listener));
+        container.put(bytes(3, 4, 2, 5, 6), listener);
+        assertFrames(bytes(1, 2), bytes(5, 6));
+    }
+
+    @Test
+    public void incompletePrefixIsNotFlushed() {
+        NotifyBufferContainer container = new NotifyBufferContainer(8, NotifyBufferContainer.NO_DELIMITER, 2, 0);
+        container.put(bytes(2), listener);
+        assertFalse(container.flush(listener));
+        container.put(bytes(0), listener);
+        assertFalse(container.flush(listener));
+        container.put(bytes(1, 2), listener);
+        assertFrames(bytes(1, 2));
+    }
+
+    @Test
+    public void flushSendsPartialFrame() {
+        NotifyBufferContainer container = new NotifyBufferContainer(4);
+        assertFalse(container.flush(listener));
+        container.put(bytes(1, 2), listener);
+        assertTrue(container.flush(listener));
+        assertFrames(bytes(1, 2));
+        assertEquals(0, container.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void delimiterAndLengthPrefixAreExclusive() {
+        new NotifyBufferContainer(8, 0x0A, 1, 0);
+    }
+
+    @Test
+    public void releaseDropsPartialFrame() {
+        NotifyBufferContainer container = new NotifyBufferContainer(4);
+        container.put(bytes(1, 2), listener);
+        assertEquals(2, container.release());
+        container.put(bytes(3, 4, 5, 6), listener);
+        assertFrames(bytes(3, 4, 5, 6));
+    }
+}
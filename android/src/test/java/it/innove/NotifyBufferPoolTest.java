@@ -0,0 +1,32 @@
+package it.innove;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class NotifyBufferPoolTest {
+
+    @Test
+    public void sizesAreRoundedToPowerOfTwo() {
+        assertEquals(64, NotifyBufferPool.acquire(1).length);
+        assertEquals(512, NotifyBufferPool.acquire(300).length);
+        assertEquals(1024, NotifyBufferPool.acquire(1024).length);
+    }
+
+    @Test
+    public void releasedArrayIsReusedBySameSizeClass() {
+        byte[] array = NotifyBufferPool.acquire(2000);
+        NotifyBufferPool.release(array);
+        assertSame(array, NotifyBufferPool.acquire(1500));
+        assertNotSame(array, NotifyBufferPool.acquire(1500));
+    }
+
+    @Test
+    public void foreignSizesAreNotPooled() {
+        byte[] array = new byte[100];
+        NotifyBufferPool.release(array);
+        assertNotSame(array, NotifyBufferPool.acquire(100));
+    }
+}
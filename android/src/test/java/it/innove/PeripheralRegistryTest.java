@@ -0,0 +1,125 @@
+package it.innove;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Scan results, connects and command lookups hitting the registry from several threads at once: whichever
+ * thread adds a peripheral first, every other one must carry on with that instance.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+public class PeripheralRegistryTest {
+
+    private static final int ADDRESSES = 64;
+    private static final int SCANNERS = 4;
+    private static final int LOOKUPS = 2;
+    private static final int ROUNDS = 200;
+
+    private static Peripheral peripheral(BluetoothDevice device) {
+        Peripheral peripheral = mock(Peripheral.class);
+        when(peripheral.getDevice()).thenReturn(device);
+        return peripheral;
+    }
+
+    @Test
+    public void scanResultsNeverReplaceTheConnectedPeripheral() throws Exception {
+        BluetoothDevice[] devices = new BluetoothDevice[ADDRESSES];
+        for (int i = 0; i < ADDRESSES; i++) {
+            devices[i] = BluetoothAdapter.getDefaultAdapter()
+                    .getRemoteDevice(String.format(Locale.US, "00:11:22:33:44:%02X", i));
+        }
+
+        for (int attempt = 0; attempt < 10; attempt++) {
+            BleManager bleManager = new BleManager(mock(ReactApplicationContext.class));
+            AtomicReferenceArray<Peripheral> connected = new AtomicReferenceArray<>(ADDRESSES);
+            AtomicInteger orphaned = new AtomicInteger();
+            AtomicBoolean scanning = new AtomicBoolean(true);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+
+            // same steps as the scan managers
+            for (int t = 0; t < SCANNERS; t++) {
+                threads.add(new Thread(() -> {
+                    await(start);
+                    for (int round = 0; round < ROUNDS; round++) {
+                        for (BluetoothDevice device : devices) {
+                            Peripheral peripheral = bleManager.getPeripheral(device);
+                            bleManager.savePeripheral(peripheral != null ? peripheral : peripheral(device));
+                        }
+                    }
+                }));
+            }
+            // connect keeps the peripheral returned by the registry and commands look it up afterwards
+            threads.add(new Thread(() -> {
+                await(start);
+                for (int i = ADDRESSES - 1; i >= 0; i--) {
+                    Peripheral peripheral = bleManager.getPeripheral(devices[i]);
+                    connected.set(i, bleManager.savePeripheral(peripheral != null ? peripheral : peripheral(devices[i])));
+                }
+            }));
+            List<Thread> lookups = new ArrayList<>();
+            for (int t = 0; t < LOOKUPS; t++) {
+                lookups.add(new Thread(() -> {
+                    await(start);
+                    while (scanning.get()) {
+                        for (int i = 0; i < ADDRESSES; i++) {
+                            Peripheral peripheral = connected.get(i);
+                            if (peripheral != null && bleManager.getPeripheral(devices[i]) != peripheral) {
+                                orphaned.incrementAndGet();
+                            }
+                        }
+                    }
+                }));
+            }
+
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : lookups) {
+                thread.start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            scanning.set(false);
+            for (Thread thread : lookups) {
+                thread.join();
+            }
+
+            assertEquals(0, orphaned.get());
+            for (int i = 0; i < ADDRESSES; i++) {
+                assertSame(connected.get(i), bleManager.getPeripheral(devices[i]));
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package it.innove;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanThrottleTest {
+
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:FF";
+
+    @Test
+    public void duplicatesSuppressedUntilPayloadChanges() {
+        ScanThrottle throttle = new ScanThrottle(false, 0, 0);
+        assertTrue(throttle.shouldReport(ADDRESS, -60, new byte[]{1}, 0));
+        assertFalse(throttle.shouldReport(ADDRESS, -50, new byte[]{1}, 10));
+        assertTrue(throttle.shouldReport(ADDRESS, -50, new byte[]{2}, 20));
+    }
+
+    @Test
+    public void allowDuplicatesRespectsMinReportInterval() {
+        ScanThrottle throttle = new ScanThrottle(true, 100, 0);
+        assertTrue(throttle.shouldReport(ADDRESS, -60, null, 0));
+        assertFalse(throttle.shouldReport(ADDRESS, -60, null, 50));
+        assertTrue(throttle.shouldReport(ADDRESS, -60, null, 100));
+    }
+
+    @Test
+    public void leastRecentlySeenDeviceIsForgotten() {
+        ScanThrottle throttle = new ScanThrottle(false, 0, 0);
+        assertTrue(throttle.shouldReport(ADDRESS, -60, null, 0));
+        for (int i = 0; i < ScanThrottle.MAX_DEVICES - 1; i++) {
+            assertTrue(throttle.shouldReport("device-" + i, -60, null, 1));
+        }
+        // seeing it again keeps it the most recent
+        assertFalse(throttle.shouldReport(ADDRESS, -60, null, 2));
+        assertTrue(throttle.shouldReport("one-too-many", -60, null, 3));
+        assertFalse(throttle.shouldReport(ADDRESS, -60, null, 4));
+        // device-0 was the eldest, it is reported again
+        assertTrue(throttle.shouldReport("device-0", -60, null, 5));
+    }
+
+    @Test
+    public void rssiDeltaReportsMovingDevices() {
+        ScanThrottle throttle = new ScanThrottle(true, 0, 5);
+        assertTrue(throttle.shouldReport(ADDRESS, -60, null, 0));
+        assertFalse(throttle.shouldReport(ADDRESS, -63, null, 10));
+        assertTrue(throttle.shouldReport(ADDRESS, -66, null, 20));
+    }
+}
@@ -0,0 +1,29 @@
+package it.innove;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+
+/**
+ * Arguments backed by the Java only maps and arrays, the native ones can't be loaded on the JVM.
+ * Unlike a static mock it applies to every thread, which tests running peripherals on their own
+ * GATT threads need. Requires instrumentedPackages = "com.facebook.react.bridge".
+ */
+@Implements(Arguments.class)
+public class ShadowArguments {
+
+    @Implementation
+    protected static WritableMap createMap() {
+        return new JavaOnlyMap();
+    }
+
+    @Implementation
+    protected static WritableArray createArray() {
+        return new JavaOnlyArray();
+    }
+}
@@ -0,0 +1,362 @@
+package it.innove;
+
+import android.app.Activity;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An in-process peripheral behind the GattTransport interface, to load test the command queue, callback
+ * routing and notification buffering without a device. It lives with the tests and is not part of the
+ * library. Install it with
+ * BleManager.setGattTransportFactory(new SimulatedGattTransport.Factory(config)), every following connect
+ * then talks to a simulated peripheral with the services of the Config.
+ *
+ * Each operation is answered after latency plus a random jitter. A failureRate share of them is answered
+ * with failureStatus and a dropRate share never gets an answer, which exercises the command timeouts.
+ * Writes larger than the negotiated MTU allows fail like on a real link. Characteristics with NOTIFY or
+ * INDICATE send notificationsPerTick values every notificationInterval ms once their CCCD is written, each
+ * value starting with a big endian sequence number so gaps and reordering can be detected.
+ *
+ * Callbacks are delivered on one thread shared by the peripherals of a Factory, like the binder thread of
+ * the real stack.
+ */
+public class SimulatedGattTransport implements GattTransport {
+
+    private static final UUID CCCD = UUIDHelper.uuidFromString("2902");
+    private static final int DEFAULT_MTU = 23;
+    private static final int MAX_ATTRIBUTE_LENGTH = 512;
+
+    public static class Config {
+        private int connectLatency = 50;
+        private int latency = 10;
+        private int latencyJitter = 0;
+        private double failureRate = 0;
+        private int failureStatus = BluetoothGatt.GATT_FAILURE;
+        private double dropRate = 0;
+        private int mtu = 517;
+        private int rssi = -60;
+        private int notificationInterval = 100;
+        private int notificationsPerTick = 1;
+        private int notificationSize = 20;
+        private final Map<UUID, Map<UUID, Integer>> characteristics = new LinkedHashMap<>();
+
+        // Delay in ms before onConnectionStateChange reports the connection
+        public Config setConnectLatency(int connectLatency) {
+            this.connectLatency = connectLatency;
+            return this;
+        }
+
+        // Delay in ms before an operation is answered, plus up to latencyJitter ms
+        public Config setLatency(int latency, int latencyJitter) {
+            this.latency = latency;
+            this.latencyJitter = latencyJitter;
+            return this;
+        }
+
+        // Share of operations and connections answered with status instead of GATT_SUCCESS
+        public Config setFailureRate(double failureRate, int status) {
+            this.failureRate = failureRate;
+            this.failureStatus = status;
+            return this;
+        }
+
+        // Share of operations that are never answered
+        public Config setDropRate(double dropRate) {
+            this.dropRate = dropRate;
+            return this;
+        }
+
+        // Largest MTU the peripheral accepts in requestMtu
+        public Config setMtu(int mtu) {
+            this.mtu = mtu;
+            return this;
+        }
+
+        public Config setRssi(int rssi) {
+            this.rssi = rssi;
+            return this;
+        }
+
+        // A notificationInterval of 0 disables the notifications, size is capped to the MTU
+        public Config setNotifications(int notificationInterval, int notificationsPerTick, int notificationSize) {
+            this.notificationInterval = notificationInterval;
+            this.notificationsPerTick = notificationsPerTick;
+            this.notificationSize = notificationSize;
+            return this;
+        }
+
+        // properties are the BluetoothGattCharacteristic.PROPERTY_ flags
+        public Config addCharacteristic(UUID service, UUID characteristic, int properties) {
+            Map<UUID, Integer> serviceCharacteristics = characteristics.get(service);
+            if (serviceCharacteristics == null) {
+                serviceCharacteristics = new LinkedHashMap<>();
+                characteristics.put(service, serviceCharacteristics);
+            }
+            serviceCharacteristics.put(characteristic, properties);
+            return this;
+        }
+
+        // Every peripheral gets its own attribute objects since they hold the values
+        private List<BluetoothGattService> createServices() {
+            List<BluetoothGattService> services = new ArrayList<>();
+            for (Map.Entry<UUID, Map<UUID, Integer>> serviceEntry : characteristics.entrySet()) {
+                BluetoothGattService service = new BluetoothGattService(serviceEntry.getKey(),
+                        BluetoothGattService.SERVICE_TYPE_PRIMARY);
+                for (Map.Entry<UUID, Integer> entry : serviceEntry.getValue().entrySet()) {
+                    int properties = entry.getValue();
+                    BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(entry.getKey(),
+                            properties, BluetoothGattCharacteristic.PERMISSION_READ
+                            | BluetoothGattCharacteristic.PERMISSION_WRITE);
+                    characteristic.setValue(new byte[0]);
+                    if ((properties & (BluetoothGattCharacteristic.PROPERTY_NOTIFY
+                            | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0) {
+                        BluetoothGattDescriptor descriptor = new BluetoothGattDescriptor(CCCD,
+                                BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE);
+                        descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+                        characteristic.addDescriptor(descriptor);
+                    }
+                    service.addCharacteristic(characteristic);
+                }
+                services.add(service);
+            }
+            return services;
+        }
+    }
+
+    public static class Factory implements GattTransport.Factory {
+
+        private final Config config;
+        private HandlerThread thread;
+        private Handler handler;
+
+        public Factory(Config config) {
+            this.config = config;
+        }
+
+        @Override
+        public synchronized GattTransport connect(Peripheral peripheral, Activity activity,
+                                                  BluetoothGattCallback callback, Handler peripheralHandler) {
+            if (thread == null) {
+                thread = new HandlerThread("BleManagerSimulator");
+                thread.start();
+                handler = new Handler(thread.getLooper());
+            }
+            SimulatedGattTransport transport = new SimulatedGattTransport(config, callback, handler);
+            transport.connect();
+            return transport;
+        }
+
+        public synchronized void shutdown() {
+            if (thread != null) {
+                thread.quitSafely();
+                thread = null;
+                handler = null;
+            }
+        }
+    }
+
+    private final Config config;
+    private final BluetoothGattCallback callback;
+    private final Handler handler;
+    private final List<BluetoothGattService> services;
+    private final Map<BluetoothGattCharacteristic, Runnable> notifying = new ConcurrentHashMap<>();
+    private volatile boolean connected = false;
+    private volatile boolean closed = false;
+    private volatile int mtu = DEFAULT_MTU;
+
+    private SimulatedGattTransport(Config config, BluetoothGattCallback callback, Handler handler) {
+        this.config = config;
+        this.callback = callback;
+        this.handler = handler;
+        this.services = config.createServices();
+    }
+
+    private void connect() {
+        handler.postDelayed(() -> {
+            if (closed) {
+                return;
+            }
+            if (ThreadLocalRandom.current().nextDouble() < config.failureRate) {
+                callback.onConnectionStateChange(null, config.failureStatus, BluetoothProfile.STATE_DISCONNECTED);
+                return;
+            }
+            connected = true;
+            callback.onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_CONNECTED);
+        }, config.connectLatency);
+    }
+
+    private interface Answer {
+        void run(int status);
+    }
+
+    // Answers an operation after the configured latency, unless it is dropped
+    private boolean answer(Answer answer) {
+        if (!connected || closed) {
+            return false;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < config.dropRate) {
+            return true;
+        }
+        int status = random.nextDouble() < config.failureRate ? config.failureStatus : BluetoothGatt.GATT_SUCCESS;
+        int delay = config.latency + (config.latencyJitter > 0 ? random.nextInt(config.latencyJitter + 1) : 0);
+        handler.postDelayed(() -> {
+            if (!closed) {
+                answer.run(status);
+            }
+        }, delay);
+        return true;
+    }
+
+    @Override
+    public List<BluetoothGattService> getServices() {
+        return services;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return answer(status -> callback.onServicesDiscovered(null, status));
+    }
+
+    @Override
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return answer(status -> callback.onCharacteristicRead(null, characteristic, status));
+    }
+
+    @Override
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        byte[] value = characteristic.getValue();
+        int limit = characteristic.getWriteType() == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                ? mtu - 3 : MAX_ATTRIBUTE_LENGTH;
+        boolean tooLong = value != null && value.length > limit;
+        return answer(status -> callback.onCharacteristicWrite(null, characteristic,
+                tooLong ? BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH : status));
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return connected && !closed;
+    }
+
+    @Override
+    public boolean readDescriptor(BluetoothGattDescriptor descriptor) {
+        return answer(status -> callback.onDescriptorRead(null, descriptor, status));
+    }
+
+    @Override
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        return answer(status -> {
+            if (status == BluetoothGatt.GATT_SUCCESS && CCCD.equals(descriptor.getUuid())) {
+                byte[] value = descriptor.getValue();
+                boolean enable = value != null
+                        && !Arrays.equals(value, BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+                setNotifying(descriptor.getCharacteristic(), enable);
+            }
+            callback.onDescriptorWrite(null, descriptor, status);
+        });
+    }
+
+    @Override
+    public boolean readRemoteRssi() {
+        return answer(status -> callback.onReadRemoteRssi(null, config.rssi, status));
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        return answer(status -> {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                this.mtu = Math.max(DEFAULT_MTU, Math.min(mtu, config.mtu));
+            }
+            callback.onMtuChanged(null, this.mtu, status);
+        });
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int connectionPriority) {
+        return connected && !closed;
+    }
+
+    @Override
+    public boolean refresh() {
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        if (!connected || closed) {
+            return;
+        }
+        connected = false;
+        stopNotifications();
+        handler.postDelayed(() -> {
+            if (!closed) {
+                callback.onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS,
+                        BluetoothProfile.STATE_DISCONNECTED);
+            }
+        }, config.latency);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        connected = false;
+        stopNotifications();
+    }
+
+    // Runs on the simulator thread
+    private void setNotifying(BluetoothGattCharacteristic characteristic, boolean enable) {
+        Runnable previous = notifying.remove(characteristic);
+        if (previous != null) {
+            handler.removeCallbacks(previous);
+        }
+        if (!enable || config.notificationInterval <= 0) {
+            return;
+        }
+        Runnable notifier = new Runnable() {
+            private int sequence = 0;
+
+            @Override
+            public void run() {
+                if (!connected || closed || notifying.get(characteristic) != this) {
+                    return;
+                }
+                int size = Math.max(4, Math.min(config.notificationSize, mtu - 3));
+                for (int i = 0; i < config.notificationsPerTick; i++) {
+                    byte[] value = new byte[size];
+                    value[0] = (byte) (sequence >>> 24);
+                    value[1] = (byte) (sequence >>> 16);
+                    value[2] = (byte) (sequence >>> 8);
+                    value[3] = (byte) sequence;
+                    sequence++;
+                    characteristic.setValue(value);
+                    callback.onCharacteristicChanged(null, characteristic);
+                }
+                handler.postDelayed(this, config.notificationInterval);
+            }
+        };
+        notifying.put(characteristic, notifier);
+        handler.postDelayed(notifier, config.notificationInterval);
+    }
+
+    private void stopNotifications() {
+        for (Runnable notifier : notifying.values()) {
+            handler.removeCallbacks(notifier);
+        }
+        notifying.clear();
+    }
+}
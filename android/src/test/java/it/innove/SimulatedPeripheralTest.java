@@ -0,0 +1,410 @@
+package it.innove;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.MockedStatic;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs a Peripheral against SimulatedGattTransport: the command queue, the command timeouts and the
+ * chunked writes, without a device. The peripheral runs on the main looper of the test, the simulator
+ * on its own thread; both follow the virtual clock advanced by runUntil().
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class SimulatedPeripheralTest {
+
+    static final UUID SERVICE = UUIDHelper.uuidFromString("ffe0");
+    static final UUID CHARACTERISTIC = UUIDHelper.uuidFromString("ffe1");
+    static final String ADDRESS = "00:11:22:33:44:55";
+
+    private MockedStatic<Arguments> arguments;
+    private SimulatedGattTransport.Factory factory;
+    private BleManager bleManager;
+    private GattTransport transport;
+    private final List<Object[]> events = Collections.synchronizedList(new ArrayList<>());
+
+    // The results of the callbacks of one call
+    static class Results implements Callback {
+        final List<Object[]> invocations = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void invoke(Object... args) {
+            invocations.add(args);
+        }
+
+        int count() {
+            return invocations.size();
+        }
+
+        Object error() {
+            return invocations.get(0).length > 0 ? invocations.get(0)[0] : null;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        arguments = mockStatic(Arguments.class);
+        arguments.when(Arguments::createMap).thenAnswer(invocation -> new JavaOnlyMap());
+        arguments.when(Arguments::createArray).thenAnswer(invocation -> new JavaOnlyArray());
+    }
+
+    @After
+    public void tearDown() {
+        if (factory != null) {
+            factory.shutdown();
+        }
+        arguments.close();
+    }
+
+    static SimulatedGattTransport.Config config() {
+        return new SimulatedGattTransport.Config()
+                .setConnectLatency(20)
+                .setLatency(5, 0)
+                .setNotifications(0, 0, 0)
+                .addCharacteristic(SERVICE, CHARACTERISTIC, BluetoothGattCharacteristic.PROPERTY_READ
+                        | BluetoothGattCharacteristic.PROPERTY_WRITE
+                        | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE);
+    }
+
+    private Peripheral connect(SimulatedGattTransport.Config config, int commandTimeout) throws Exception {
+        factory = new SimulatedGattTransport.Factory(config);
+        ReactApplicationContext reactContext = mock(ReactApplicationContext.class);
+        RCTNativeAppEventEmitter emitter = (eventName, data) -> events.add(new Object[]{eventName, data});
+        when(reactContext.getJSModule(RCTNativeAppEventEmitter.class)).thenReturn(emitter);
+        bleManager = mock(BleManager.class);
+        when(bleManager.getReactContext()).thenReturn(reactContext);
+        when(bleManager.getMetrics()).thenReturn(new BleMetrics());
+        when(bleManager.getGattHandler(any(Peripheral.class))).thenReturn(new Handler(Looper.getMainLooper()));
+        when(bleManager.getGattTransportFactory()).thenReturn((peripheral, activity, callback, handler) ->
+                transport = factory.connect(peripheral, activity, callback, handler));
+        when(bleManager.getCommandTimeout()).thenReturn(commandTimeout);
+
+        Peripheral peripheral = new Peripheral(BluetoothAdapter.getDefaultAdapter().getRemoteDevice(ADDRESS),
+                bleManager);
+        Results connected = new Results();
+        peripheral.connect(connected, null);
+        runUntil(() -> connected.count() > 0, 1000);
+        assertNull(connected.error());
+        assertTrue(peripheral.isConnected());
+        return peripheral;
+    }
+
+    // Advances the virtual clock 1 ms at a time until the condition holds, the simulator thread is given
+    // a moment of real time after each step to answer
+    static void runUntil(Callable<Boolean> condition, long maxMillis) throws Exception {
+        for (long elapsed = 0; elapsed <= maxMillis; elapsed++) {
+            shadowOf(Looper.getMainLooper()).idle();
+            if (condition.call()) {
+                return;
+            }
+            shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(1));
+            Thread.sleep(1);
+        }
+        throw new AssertionError("Condition not met after " + maxMillis + " ms");
+    }
+
+    @Test
+    public void commandsCompleteOneAfterTheOtherInOrder() throws Exception {
+        Peripheral peripheral = connect(config(), 0);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 20; i++) {
+            final int index = i;
+            peripheral.read(SERVICE, CHARACTERISTIC, GattCommand.PRIORITY_DEFAULT, args -> {
+                assertNull(args[0]);
+                order.add(index);
+            });
+        }
+        runUntil(() -> order.size() == 20, 2000);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        assertEquals(20, commandMetrics(peripheral, "read").getMap("completionTime").getDouble("count"), 0);
+    }
+
+    @Test
+    public void droppedCommandsTimeOutAndTheQueueMovesOn() throws Exception {
+        Peripheral peripheral = connect(config().setDropRate(1), 100);
+        Results first = new Results();
+        Results second = new Results();
+        peripheral.read(SERVICE, CHARACTERISTIC, GattCommand.PRIORITY_DEFAULT, first);
+        peripheral.read(SERVICE, CHARACTERISTIC, GattCommand.PRIORITY_DEFAULT, second);
+
+        runUntil(() -> first.count() > 0, 150);
+        assertEquals("Command read timed out after 100 ms", first.error());
+        assertEquals(0, second.count());
+        runUntil(() -> second.count() > 0, 150);
+        assertEquals("Command read timed out after 100 ms", second.error());
+        assertEquals(1, first.count());
+
+        assertEquals(2, countEvents("BleManagerCommandTimeout"));
+        assertEquals(2, commandMetrics(peripheral, "read").getDouble("timeouts"), 0);
+    }
+
+    @Test
+    public void lateAnswerOfATimedOutReadIsDropped() throws Exception {
+        UUID other = UUIDHelper.uuidFromString("ffe2");
+        Peripheral peripheral = connect(config().addCharacteristic(SERVICE, other,
+                BluetoothGattCharacteristic.PROPERTY_READ).setDropRate(1), 100);
+        BluetoothGattService service = transport.getServices().get(0);
+        BluetoothGattCharacteristic first = service.getCharacteristic(CHARACTERISTIC);
+        BluetoothGattCharacteristic second = service.getCharacteristic(other);
+        first.setValue(new byte[]{1});
+        second.setValue(new byte[]{2});
+        Results timedOut = new Results();
+        Results next = new Results();
+        peripheral.read(SERVICE, CHARACTERISTIC, GattCommand.PRIORITY_DEFAULT, timedOut);
+        peripheral.read(SERVICE, other, GattCommand.PRIORITY_DEFAULT, next);
+        runUntil(() -> timedOut.count() > 0, 150);
+        assertEquals("Command read timed out after 100 ms", timedOut.error());
+
+        // the stack answers the first read after all, while the second one runs
+        peripheral.onCharacteristicRead(null, first, BluetoothGatt.GATT_SUCCESS);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(0, next.count());
+
+        peripheral.onCharacteristicRead(null, second, BluetoothGatt.GATT_SUCCESS);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, next.count());
+        assertNull(next.error());
+        assertEquals(2, ((ReadableArray) next.invocations.get(0)[1]).getInt(0));
+        assertEquals(1, timedOut.count());
+    }
+
+    @Test
+    public void largeWritesAreSentInChunks() throws Exception {
+        Peripheral peripheral = connect(config(), 1000);
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Results written = new Results();
+        peripheral.write(SERVICE, CHARACTERISTIC, data, 20, null, GattCommand.PRIORITY_DEFAULT, written,
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        runUntil(() -> written.count() > 0, 1000);
+        assertEquals(0, written.invocations.get(0).length);
+
+        // the last chunk is left in the characteristic
+        BluetoothGattCharacteristic characteristic = transport.getServices().get(0).getCharacteristic(CHARACTERISTIC);
+        assertArrayEquals(Arrays.copyOfRange(data, 80, 100), characteristic.getValue());
+    }
+
+    @Test
+    public void chunkedWriteLongerThanTheTimeoutCompletes() throws Exception {
+        // 5 chunks of 40 ms each, the timeout is restarted by every acknowledged chunk
+        Peripheral peripheral = connect(config().setLatency(40, 0), 100);
+        Results written = new Results();
+        peripheral.write(SERVICE, CHARACTERISTIC, new byte[100], 20, null, GattCommand.PRIORITY_DEFAULT,
+                written, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        runUntil(() -> written.count() > 0, 1000);
+        assertEquals(0, written.invocations.get(0).length);
+        assertEquals(0, countEvents("BleManagerCommandTimeout"));
+    }
+
+    @Test
+    public void stalledChunkTimesOut() throws Exception {
+        SimulatedGattTransport.Config config = config().setLatency(40, 0);
+        Peripheral peripheral = connect(config, 100);
+        Results written = new Results();
+        peripheral.write(SERVICE, CHARACTERISTIC, new byte[100], 20, null, GattCommand.PRIORITY_DEFAULT,
+                written, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        // the first chunk is acknowledged at 40 ms, then the link goes silent
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(50));
+        config.setDropRate(1);
+        runUntil(() -> written.count() > 0, 200);
+        assertEquals("Command write timed out after 100 ms", written.error());
+        assertEquals(1, countEvents("BleManagerCommandTimeout"));
+    }
+
+    @Test
+    public void chunksLargerThanTheAttributeFail() throws Exception {
+        Peripheral peripheral = connect(config(), 1000);
+        Results written = new Results();
+        peripheral.write(SERVICE, CHARACTERISTIC, new byte[600], 600, null, GattCommand.PRIORITY_DEFAULT,
+                written, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        runUntil(() -> written.count() > 0, 1000);
+        assertEquals("Error writing " + CHARACTERISTIC + " status=" + BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH,
+                written.error());
+
+        // the queue is still usable
+        Results read = new Results();
+        peripheral.read(SERVICE, CHARACTERISTIC, GattCommand.PRIORITY_DEFAULT, read);
+        runUntil(() -> read.count() > 0, 1000);
+        assertNull(read.error());
+    }
+
+    @Test
+    public void disconnectFailsQueuedCommands() throws Exception {
+        Peripheral peripheral = connect(config(), 0);
+        Results running = new Results();
+        Results queued = new Results();
+        peripheral.read(SERVICE, CHARACTERISTIC, GattCommand.PRIORITY_DEFAULT, running);
+        peripheral.read(SERVICE, CHARACTERISTIC, GattCommand.PRIORITY_DEFAULT, queued);
+        peripheral.disconnect(null, true);
+        runUntil(() -> running.count() > 0 && queued.count() > 0, 100);
+        assertEquals("Device disconnected", running.error());
+        assertEquals("Device disconnected", queued.error());
+
+        // the answer of the simulator to the first read arrives too late to be reported again
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(50));
+        Thread.sleep(10);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, running.count());
+    }
+
+    // A registry telling its peripherals when they enter and leave it, like the one of BleManager
+    private static PeripheralRegistry registry() {
+        return new PeripheralRegistry(new PeripheralRegistry.Listener() {
+            @Override
+            public void onAdded(Peripheral peripheral) {
+                peripheral.onAdded();
+            }
+
+            @Override
+            public void onRemoved(Peripheral peripheral) {
+                peripheral.onRemoved();
+            }
+        });
+    }
+
+    @Test
+    public void removedPeripheralReleasesItsThreadOnceGattIsClosed() throws Exception {
+        Peripheral peripheral = connect(config(), 0);
+        PeripheralRegistry registry = registry();
+        registry.put(peripheral);
+
+        // without force gatt stays open until the simulator reports STATE_DISCONNECTED
+        peripheral.disconnect(null, false);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertFalse(peripheral.isConnected());
+        assertTrue(peripheral.hasGatt());
+        registry.removeDisconnected();
+        assertEquals(peripheral, registry.get(ADDRESS));
+
+        registry.remove(ADDRESS);
+        shadowOf(Looper.getMainLooper()).idle();
+        verify(bleManager, never()).releaseGattHandler(peripheral);
+
+        runUntil(() -> !peripheral.hasGatt(), 100);
+        verify(bleManager).releaseGattHandler(peripheral);
+    }
+
+    @Test
+    public void peripheralAddedAgainKeepsItsThread() throws Exception {
+        Peripheral peripheral = connect(config(), 0);
+        PeripheralRegistry registry = registry();
+        registry.putIfAbsent(peripheral);
+
+        // evicted, then seen again by a scan before the release ran
+        registry.remove(ADDRESS);
+        assertEquals(peripheral, registry.putIfAbsent(peripheral));
+        peripheral.disconnect(null, false);
+        runUntil(() -> !peripheral.hasGatt(), 100);
+        verify(bleManager, never()).releaseGattHandler(peripheral);
+
+        registry.remove(ADDRESS);
+        shadowOf(Looper.getMainLooper()).idle();
+        verify(bleManager).releaseGattHandler(peripheral);
+    }
+
+    @Test
+    public void commandsQueuedWhileDisconnectingAreAnsweredOnce() throws Exception {
+        Peripheral peripheral = connect(config(), 0);
+        List<Results> results = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    Results read = new Results();
+                    results.add(read);
+                    peripheral.read(SERVICE, CHARACTERISTIC, GattCommand.PRIORITY_DEFAULT, read);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        peripheral.disconnect(null, true);
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                shadowOf(Looper.getMainLooper()).idle();
+                thread.join(1);
+            }
+        }
+        runUntil(() -> {
+            synchronized (results) {
+                for (Results read : results) {
+                    if (read.count() == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }, 1000);
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(50));
+        Thread.sleep(10);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(800, results.size());
+        for (Results read : results) {
+            assertEquals(1, read.count());
+        }
+    }
+
+    private int countEvents(String eventName) {
+        int count = 0;
+        synchronized (events) {
+            for (Object[] event : events) {
+                if (eventName.equals(event[0])) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static ReadableMap commandMetrics(Peripheral peripheral, String command) {
+        return peripheral.getMetrics().toWritableMap(1).getMap("commands").getMap(command);
+    }
+}
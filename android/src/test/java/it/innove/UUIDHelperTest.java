@@ -0,0 +1,32 @@
+package it.innove;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UUIDHelperTest {
+
+    @Test
+    public void shortUuidsUseTheBaseUuid() {
+        assertEquals(UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb"), UUIDHelper.uuidFromString("180D"));
+    }
+
+    @Test
+    public void baseUuidsAreFormattedShort() {
+        assertEquals("180d", UUIDHelper.uuidToString(UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb")));
+        assertEquals("12345678-0000-1000-8000-00805f9b34fb",
+                UUIDHelper.uuidToString(UUID.fromString("12345678-0000-1000-8000-00805f9b34fb")));
+    }
+
+    @Test
+    public void customUuidsAreFormattedLong() {
+        String uuid = "6e400001-b5a3-f393-e0a9-e50e24dcca9e";
+        assertEquals(uuid, UUIDHelper.uuidToString(UUIDHelper.uuidFromString(uuid)));
+        assertFalse(UUIDHelper.isBaseUUID(UUID.fromString(uuid)));
+        assertTrue(UUIDHelper.isBaseUUID(UUIDHelper.uuidFromString("2902")));
+    }
+}
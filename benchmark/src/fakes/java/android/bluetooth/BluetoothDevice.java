@@ -0,0 +1,17 @@
+package android.bluetooth;
+
+/**
+ * JVM stand-in for a remote device, only its address.
+ */
+public class BluetoothDevice {
+
+    private final String address;
+
+    public BluetoothDevice(String address) {
+        this.address = address;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+}
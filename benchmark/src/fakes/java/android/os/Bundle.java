@@ -0,0 +1,50 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JVM stand-in for android.os.Bundle with the accessors BundleJSONConverter uses.
+ */
+public class Bundle {
+
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    public Set<String> keySet() {
+        return values.keySet();
+    }
+
+    public Object get(String key) {
+        return values.get(key);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        values.put(key, value);
+    }
+
+    public void putInt(String key, int value) {
+        values.put(key, value);
+    }
+
+    public void putLong(String key, long value) {
+        values.put(key, value);
+    }
+
+    public void putDouble(String key, double value) {
+        values.put(key, value);
+    }
+
+    public void putString(String key, String value) {
+        values.put(key, value);
+    }
+
+    public void putStringArrayList(String key, ArrayList<String> value) {
+        values.put(key, value);
+    }
+
+    public void putBundle(String key, Bundle value) {
+        values.put(key, value);
+    }
+}
@@ -0,0 +1,28 @@
+package android.util;
+
+/**
+ * JVM stand-in for android.util.Base64, backed by java.util.Base64.
+ * Only the NO_WRAP and DEFAULT flags are supported.
+ */
+public final class Base64 {
+
+    public static final int DEFAULT = 0;
+    public static final int NO_WRAP = 2;
+
+    private Base64() {
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return encodeToString(input, 0, input.length, flags);
+    }
+
+    public static String encodeToString(byte[] input, int offset, int len, int flags) {
+        byte[] range = offset == 0 && len == input.length ? input : java.util.Arrays.copyOfRange(input, offset, offset + len);
+        return flags == NO_WRAP ? java.util.Base64.getEncoder().encodeToString(range)
+                : java.util.Base64.getMimeEncoder().encodeToString(range) + "\n";
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return java.util.Base64.getMimeDecoder().decode(str);
+    }
+}
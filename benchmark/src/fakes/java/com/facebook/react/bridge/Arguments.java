@@ -0,0 +1,15 @@
+package com.facebook.react.bridge;
+
+/**
+ * JVM stand-in for Arguments: the native maps and arrays are replaced by JavaOnlyMap and JavaOnlyArray.
+ */
+public class Arguments {
+
+    public static WritableMap createMap() {
+        return new JavaOnlyMap();
+    }
+
+    public static WritableArray createArray() {
+        return new JavaOnlyArray();
+    }
+}
@@ -0,0 +1,42 @@
+package com.facebook.react.bridge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JVM stand-in for the React Native array of the same name, a plain list of boxed values.
+ */
+public class JavaOnlyArray implements WritableArray {
+
+    private final List<Object> values = new ArrayList<>();
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public int getInt(int index) {
+        return ((Number) values.get(index)).intValue();
+    }
+
+    @Override
+    public void pushInt(int value) {
+        values.add((double) value);
+    }
+
+    @Override
+    public void pushDouble(double value) {
+        values.add(value);
+    }
+
+    @Override
+    public void pushString(String value) {
+        values.add(value);
+    }
+
+    @Override
+    public void pushMap(WritableMap map) {
+        values.add(map);
+    }
+}
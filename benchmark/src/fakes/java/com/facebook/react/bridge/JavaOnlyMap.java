@@ -0,0 +1,62 @@
+package com.facebook.react.bridge;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for the React Native map of the same name, a plain map of boxed values.
+ */
+public class JavaOnlyMap implements WritableMap {
+
+    private final Map<String, Object> values = new HashMap<>();
+
+    @Override
+    public boolean hasKey(String name) {
+        return values.containsKey(name);
+    }
+
+    @Override
+    public int getInt(String name) {
+        return ((Number) values.get(name)).intValue();
+    }
+
+    @Override
+    public double getDouble(String name) {
+        return ((Number) values.get(name)).doubleValue();
+    }
+
+    @Override
+    public String getString(String name) {
+        return (String) values.get(name);
+    }
+
+    @Override
+    public void putBoolean(String key, boolean value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public void putInt(String key, int value) {
+        values.put(key, (double) value);
+    }
+
+    @Override
+    public void putDouble(String key, double value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public void putArray(String key, WritableArray value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public void putMap(String key, WritableMap value) {
+        values.put(key, value);
+    }
+}
@@ -0,0 +1,7 @@
+package com.facebook.react.bridge;
+
+public interface ReadableArray {
+    int size();
+
+    int getInt(int index);
+}
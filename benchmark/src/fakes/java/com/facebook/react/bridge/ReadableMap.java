@@ -0,0 +1,11 @@
+package com.facebook.react.bridge;
+
+public interface ReadableMap {
+    boolean hasKey(String name);
+
+    int getInt(String name);
+
+    double getDouble(String name);
+
+    String getString(String name);
+}
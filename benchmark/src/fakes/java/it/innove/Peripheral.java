@@ -0,0 +1,36 @@
+package it.innove;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * Stand-in for the real Peripheral, which needs a BluetoothGatt: only the state PeripheralRegistry reads.
+ */
+public class Peripheral {
+
+    private final BluetoothDevice device;
+    private volatile boolean connected = false;
+
+    public Peripheral(BluetoothDevice device) {
+        this.device = device;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public boolean isConnecting() {
+        return false;
+    }
+
+    public boolean hasGatt() {
+        return false;
+    }
+
+    public void setConnected(boolean connected) {
+        this.connected = connected;
+    }
+}
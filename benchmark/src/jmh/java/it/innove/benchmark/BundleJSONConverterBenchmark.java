@@ -0,0 +1,51 @@
+package it.innove.benchmark;
+
+import android.os.Bundle;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import it.innove.BundleJSONConverter;
+
+/**
+ * Round trips of a small advertisement sized object through BundleJSONConverter.
+ */
+@State(Scope.Thread)
+public class BundleJSONConverterBenchmark {
+
+    private JSONObject json;
+    private Bundle bundle;
+
+    @Setup
+    public void setup() throws JSONException {
+        json = new JSONObject();
+        json.put("id", "AA:BB:CC:DD:EE:FF");
+        json.put("name", "Sensor");
+        json.put("rssi", -60);
+        json.put("isConnectable", true);
+        JSONArray serviceUUIDs = new JSONArray();
+        serviceUUIDs.put("180d");
+        serviceUUIDs.put("180f");
+        json.put("serviceUUIDs", serviceUUIDs);
+        JSONObject manufacturerData = new JSONObject();
+        manufacturerData.put("CDVType", "ArrayBuffer");
+        manufacturerData.put("data", "AgEGCf9MAAIVAAAAAA==");
+        json.put("manufacturerData", manufacturerData);
+        bundle = BundleJSONConverter.convertToBundle(json);
+    }
+
+    @Benchmark
+    public Bundle convertToBundle() throws JSONException {
+        return BundleJSONConverter.convertToBundle(json);
+    }
+
+    @Benchmark
+    public JSONObject convertToJSON() throws JSONException {
+        return BundleJSONConverter.convertToJSON(bundle);
+    }
+}
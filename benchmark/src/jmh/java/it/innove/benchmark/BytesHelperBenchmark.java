@@ -0,0 +1,41 @@
+package it.innove.benchmark;
+
+import com.facebook.react.bridge.WritableArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+import it.innove.BytesHelper;
+
+/**
+ * The byte array conversions behind BleManager.bytesToHex and BleManager.bytesToWritableArray.
+ */
+@State(Scope.Thread)
+public class BytesHelperBenchmark {
+
+    @Param({"20", "244", "512"})
+    public int size;
+
+    private byte[] value;
+
+    @Setup
+    public void setup() {
+        value = new byte[size];
+        new Random(42).nextBytes(value);
+    }
+
+    @Benchmark
+    public String toHex() {
+        return BytesHelper.toHex(value, 0, value.length);
+    }
+
+    @Benchmark
+    public WritableArray toWritableArray() {
+        return BytesHelper.toWritableArray(value, 0, value.length);
+    }
+}
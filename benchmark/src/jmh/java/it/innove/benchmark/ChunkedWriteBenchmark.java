@@ -0,0 +1,41 @@
+package it.innove.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+import it.innove.ChunkedWrite;
+
+/**
+ * Splitting a write payload in chunks the way Peripheral.write does, without the GATT round trips.
+ */
+@State(Scope.Thread)
+public class ChunkedWriteBenchmark {
+
+    @Param({"20", "512", "4096"})
+    public int size;
+
+    @Param({"20", "244"})
+    public int chunkSize;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+    }
+
+    @Benchmark
+    public void chunk(Blackhole blackhole) {
+        ChunkedWrite write = new ChunkedWrite(data, chunkSize, 1, 0);
+        while (write.hasNextChunk()) {
+            blackhole.consume(write.nextChunk());
+        }
+    }
+}
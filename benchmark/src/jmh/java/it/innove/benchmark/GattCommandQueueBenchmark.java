@@ -0,0 +1,55 @@
+package it.innove.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import it.innove.GattCommand;
+import it.innove.GattCommandQueue;
+import it.innove.LatencyHistogram;
+
+/**
+ * The bookkeeping around every GATT operation: queueing, polling and recording its latency.
+ */
+@State(Scope.Thread)
+public class GattCommandQueueBenchmark {
+
+    private final GattCommandQueue queue = new GattCommandQueue();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private GattCommand[] commands;
+    private long nanos = 0;
+
+    @Setup
+    public void setup() {
+        commands = new GattCommand[8];
+        for (int i = 0; i < commands.length; i++) {
+            // mostly default priority with some control and bulk traffic
+            int priority = i == 0 ? GattCommand.PRIORITY_CONTROL
+                    : i < 3 ? GattCommand.PRIORITY_BULK : GattCommand.PRIORITY_DEFAULT;
+            commands[i] = new GattCommand(GattCommand.WRITE, priority, 0, command -> {
+            }, args -> {
+            });
+        }
+    }
+
+    @Benchmark
+    public GattCommand addAndPoll() {
+        for (GattCommand command : commands) {
+            queue.add(command);
+        }
+        GattCommand last = null;
+        GattCommand command;
+        while ((command = queue.poll()) != null) {
+            last = command;
+        }
+        return last;
+    }
+
+    @Benchmark
+    public long recordLatency() {
+        nanos = (nanos + 7919) & 0xFFFFFFF;
+        histogram.record(nanos);
+        return nanos;
+    }
+}
@@ -0,0 +1,66 @@
+package it.innove.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import it.innove.NotifyBufferContainer;
+import it.innove.NotifyBufferPool;
+
+/**
+ * Notified values going through NotifyBufferContainer, in each of its framing modes.
+ */
+@State(Scope.Thread)
+public class NotifyBufferBenchmark {
+
+    @Param({"size", "delimiter", "lengthPrefix"})
+    public String mode;
+
+    private NotifyBufferContainer container;
+    private byte[] value;
+    private NotifyBufferContainer.FrameListener listener;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        // 20 byte notifications, a frame every 100 bytes
+        value = new byte[20];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte) (i + 1);
+        }
+        switch (mode) {
+            case "delimiter":
+                container = new NotifyBufferContainer(128, 0x0A, 0, 0);
+                value[value.length - 1] = 0x0A;
+                break;
+            case "lengthPrefix":
+                container = new NotifyBufferContainer(128, NotifyBufferContainer.NO_DELIMITER, 1, 0);
+                value[0] = 19;
+                break;
+            default:
+                container = new NotifyBufferContainer(100);
+                break;
+        }
+        listener = (buffer, offset, length) -> blackhole.consume(length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        container.release();
+    }
+
+    @Benchmark
+    public int put() {
+        return container.put(value, listener);
+    }
+
+    @Benchmark
+    public byte[] poolAcquireRelease() {
+        byte[] array = NotifyBufferPool.acquire(300);
+        NotifyBufferPool.release(array);
+        return array;
+    }
+}
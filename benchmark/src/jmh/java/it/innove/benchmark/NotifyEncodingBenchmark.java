@@ -0,0 +1,49 @@
+package it.innove.benchmark;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+import it.innove.NotifyEncoding;
+
+/**
+ * The BleManagerDidUpdateValueForCharacteristic payload built for each notification, with the historical
+ * number[] value against the base64 and hex strings. Only the Java side is measured, the bridge has to
+ * serialize one value per byte for "array" on top of this.
+ */
+@State(Scope.Thread)
+public class NotifyEncodingBenchmark {
+
+    @Param({"array", "base64", "hex"})
+    public String encoding;
+
+    @Param({"20", "244"})
+    public int size;
+
+    private int encodingValue;
+    private byte[] value;
+
+    @Setup
+    public void setup() {
+        encodingValue = NotifyEncoding.fromString(encoding);
+        value = new byte[size];
+        new Random(42).nextBytes(value);
+    }
+
+    @Benchmark
+    public WritableMap notification() {
+        WritableMap map = Arguments.createMap();
+        map.putString("peripheral", "AA:BB:CC:DD:EE:FF");
+        map.putString("characteristic", "ffe1");
+        map.putString("service", "ffe0");
+        NotifyEncoding.putValue(map, "value", value, encodingValue);
+        return map;
+    }
+}
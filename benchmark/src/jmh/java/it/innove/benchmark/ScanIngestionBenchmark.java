@@ -0,0 +1,66 @@
+package it.innove.benchmark;
+
+import android.bluetooth.BluetoothDevice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import it.innove.Peripheral;
+import it.innove.PeripheralRegistry;
+import it.innove.ScanThrottle;
+
+/**
+ * Scan results going into the peripheral registry: the throttle decision and the registry
+ * lookup or insert, over a population of devices larger or smaller than the registry capacity.
+ */
+@State(Scope.Thread)
+public class ScanIngestionBenchmark {
+
+    @Param({"100", "5000"})
+    public int devices;
+
+    private String[] addresses;
+    private BluetoothDevice[] bluetoothDevices;
+    private byte[] payload;
+    private PeripheralRegistry registry;
+    private ScanThrottle throttle;
+    private int index = 0;
+    private long now = 0;
+
+    @Setup
+    public void setup() {
+        addresses = new String[devices];
+        bluetoothDevices = new BluetoothDevice[devices];
+        for (int i = 0; i < devices; i++) {
+            addresses[i] = String.format("AA:BB:CC:%02X:%02X:%02X", (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF);
+            bluetoothDevices[i] = new BluetoothDevice(addresses[i]);
+        }
+        payload = new byte[31];
+        registry = new PeripheralRegistry(new PeripheralRegistry.Listener() {
+            @Override
+            public void onAdded(Peripheral peripheral) {
+            }
+
+            @Override
+            public void onRemoved(Peripheral peripheral) {
+            }
+        });
+        registry.configure(PeripheralRegistry.DEFAULT_CAPACITY, 0);
+        throttle = new ScanThrottle(false, 0, 0);
+    }
+
+    @Benchmark
+    public boolean ingest() {
+        int i = index;
+        index = (index + 1) % devices;
+        now += 10;
+        String address = addresses[i];
+        if (registry.get(address) == null) {
+            registry.putIfAbsent(new Peripheral(bluetoothDevices[i]));
+        }
+        return throttle.shouldReport(address, -60, payload, now);
+    }
+}
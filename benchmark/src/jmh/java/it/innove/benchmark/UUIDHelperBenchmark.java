@@ -0,0 +1,60 @@
+package it.innove.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.UUID;
+
+import it.innove.UUIDHelper;
+
+/**
+ * UUID formatting and parsing as done for every attribute of asWritableMap and every advertised service.
+ */
+@State(Scope.Thread)
+public class UUIDHelperBenchmark {
+
+    private static final int COUNT = 64;
+
+    private final UUID[] baseUuids = new UUID[COUNT];
+    private final UUID[] customUuids = new UUID[COUNT];
+    private final String[] shortStrings = new String[COUNT];
+    private final String[] longStrings = new String[COUNT];
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < COUNT; i++) {
+            shortStrings[i] = String.format("%04X", 0x1800 + i);
+            baseUuids[i] = UUIDHelper.uuidFromString(shortStrings[i]);
+            customUuids[i] = new UUID(0x6E400001B5A3F393L + i, 0xE0A9E50E24DCCA9EL);
+            longStrings[i] = customUuids[i].toString();
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (COUNT - 1);
+        return index;
+    }
+
+    @Benchmark
+    public String baseUuidToString() {
+        return UUIDHelper.uuidToString(baseUuids[next()]);
+    }
+
+    @Benchmark
+    public String customUuidToString() {
+        return UUIDHelper.uuidToString(customUuids[next()]);
+    }
+
+    @Benchmark
+    public UUID shortUuidFromString() {
+        return UUIDHelper.uuidFromString(shortStrings[next()]);
+    }
+
+    @Benchmark
+    public UUID longUuidFromString() {
+        return UUIDHelper.uuidFromString(longStrings[next()]);
+    }
+}
@@ -0,0 +1,96 @@
+package it.innove.benchmark;
+
+import android.util.Base64;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.ReadableArray;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+import it.innove.BytesHelper;
+
+/**
+ * The two input encodings of write and writeWithoutResponse: a number[] decoded by BytesHelper.fromArray,
+ * and the Base64 string of writeBase64 checked and decoded the way BleManager does. The payload of 256 KB
+ * stands for a firmware image. Base64 is the JVM stand-in here, on a device it is android.util.Base64.
+ *
+ * The decode benchmarks start from values already on the Java side, the fake JavaOnlyArray is a plain list
+ * so they leave out what the bridge costs per element. The bridge benchmarks add the hop from JS: the
+ * bridge carries the arguments of a call as JSON, a number[] is parsed number by number into boxed values
+ * that getInt() unboxes again, a Base64 string is parsed as one string.
+ */
+@State(Scope.Thread)
+public class WriteInputBenchmark {
+
+    // A ReadableArray over the parsed JSON, like ReadableNativeArray over its imported values
+    private static class BridgedArray implements ReadableArray {
+        private final JSONArray values;
+
+        BridgedArray(JSONArray values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return values.length();
+        }
+
+        @Override
+        public int getInt(int index) {
+            return values.getInt(index);
+        }
+    }
+
+    @Param({"20", "512", "262144"})
+    public int size;
+
+    private JavaOnlyArray array;
+    private String base64;
+    private String arrayJson;
+    private String base64Json;
+
+    @Setup
+    public void setup() {
+        byte[] value = new byte[size];
+        new Random(42).nextBytes(value);
+        array = new JavaOnlyArray();
+        JSONArray numbers = new JSONArray();
+        for (byte b : value) {
+            array.pushInt(b & 0xFF);
+            numbers.put(b & 0xFF);
+        }
+        base64 = Base64.encodeToString(value, Base64.NO_WRAP);
+        arrayJson = numbers.toString();
+        base64Json = new JSONArray().put(base64).toString();
+    }
+
+    @Benchmark
+    public byte[] decodeArray() {
+        return BytesHelper.fromArray(array);
+    }
+
+    @Benchmark
+    public byte[] decodeBase64() {
+        BytesHelper.checkBase64(base64);
+        return Base64.decode(base64, Base64.NO_WRAP);
+    }
+
+    @Benchmark
+    public byte[] arrayOverBridge() {
+        return BytesHelper.fromArray(new BridgedArray(new JSONArray(arrayJson)));
+    }
+
+    @Benchmark
+    public byte[] base64OverBridge() {
+        String data = new JSONArray(base64Json).getString(0);
+        BytesHelper.checkBase64(data);
+        return Base64.decode(data, Base64.NO_WRAP);
+    }
+}
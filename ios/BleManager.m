@@ -9,6 +9,31 @@
 static CBCentralManager *_sharedManager = nil;
 static BleManager * _instance = nil;
 
+// Accepts standard padded Base64 only, anything else, whitespace included, is rejected like on Android.
+// Returns why the data was rejected, nil when it is valid.
+static NSString *invalidBase64Reason(NSString *data)
+{
+    NSUInteger length = [data length];
+    if (length % 4 != 0) {
+        return @"length is not a multiple of 4";
+    }
+    unichar *chars = malloc(sizeof(*chars) * MAX(length, 1));
+    [data getCharacters:chars range:NSMakeRange(0, length)];
+    NSString *reason = nil;
+    for (NSUInteger i = 0; i < length && reason == nil; i++) {
+        unichar c = chars[i];
+        if (c == '=') {
+            if (i + 2 < length || chars[length - 1] != '=') {
+                reason = [NSString stringWithFormat:@"unexpected padding at %lu", (unsigned long)i];
+            }
+        } else if (!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '+' || c == '/')) {
+            reason = [NSString stringWithFormat:@"invalid character at %lu", (unsigned long)i];
+        }
+    }
+    free(chars);
+    return reason;
+}
+
 @implementation BleManager
 
 
@@ -535,12 +560,10 @@ RCT_EXPORT_METHOD(checkState:(nonnull RCTResponseSenderBlock)callback)
     [self invokeAndClearDictionary:connectCallbacks withKey:[peripheral uuidAsString] usingParameters:@[errorStr]];
 }
 
-RCT_EXPORT_METHOD(write:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUID  characteristicUUID:(NSString*)characteristicUUID message:(NSArray*)message maxByteSize:(NSInteger)maxByteSize callback:(nonnull RCTResponseSenderBlock)callback)
+RCT_EXPORT_METHOD(write:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUID  characteristicUUID:(NSString*)characteristicUUID message:(NSArray*)message maxByteSize:(NSInteger)maxByteSize priority:(NSString *)priority callback:(nonnull RCTResponseSenderBlock)callback)
 {
     NSLog(@"Write");
     
-    BLECommandContext *context = [self getData:deviceUUID serviceUUIDString:serviceUUID characteristicUUIDString:characteristicUUID prop:CBCharacteristicPropertyWrite callback:callback];
-    
     unsigned long c = [message count];
     uint8_t *bytes = malloc(sizeof(*bytes) * c);
     
@@ -552,9 +575,31 @@ RCT_EXPORT_METHOD(write:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUI
         bytes[i] = byte;
     }
     NSData *dataMessage = [NSData dataWithBytesNoCopy:bytes length:c freeWhenDone:YES];
+    [self writeData:dataMessage deviceUUID:deviceUUID serviceUUID:serviceUUID characteristicUUID:characteristicUUID maxByteSize:maxByteSize callback:callback];
+}
+
+RCT_EXPORT_METHOD(writeBase64:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUID  characteristicUUID:(NSString*)characteristicUUID data:(NSString*)data maxByteSize:(NSInteger)maxByteSize priority:(NSString *)priority callback:(nonnull RCTResponseSenderBlock)callback)
+{
+    NSLog(@"writeBase64");
+
+    if (data == nil) {
+        callback(@[@"Data required."]);
+        return;
+    }
+    NSString *invalidReason = invalidBase64Reason(data);
+    if (invalidReason) {
+        callback(@[[NSString stringWithFormat:@"Invalid base64 data: %@", invalidReason]]);
+        return;
+    }
+    NSData *dataMessage = [[NSData alloc] initWithBase64EncodedString:data options:0];
+    [self writeData:dataMessage deviceUUID:deviceUUID serviceUUID:serviceUUID characteristicUUID:characteristicUUID maxByteSize:maxByteSize callback:callback];
+}
+
+- (void)writeData:(NSData *)dataMessage deviceUUID:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUID characteristicUUID:(NSString*)characteristicUUID maxByteSize:(NSInteger)maxByteSize callback:(nonnull RCTResponseSenderBlock)callback
+{
+    BLECommandContext *context = [self getData:deviceUUID serviceUUIDString:serviceUUID characteristicUUIDString:characteristicUUID prop:CBCharacteristicPropertyWrite callback:callback];
     
     if (context) {
-        RCTLogInfo(@"Message to write(%lu): %@ ", (unsigned long)[message count], message);
         CBPeripheral *peripheral = [context peripheral];
         CBCharacteristic *characteristic = [context characteristic];
         
@@ -588,11 +633,10 @@ RCT_EXPORT_METHOD(write:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUI
 }
 
 
-RCT_EXPORT_METHOD(writeWithoutResponse:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUID  characteristicUUID:(NSString*)characteristicUUID message:(NSArray*)message maxByteSize:(NSInteger)maxByteSize queueSleepTime:(NSInteger)queueSleepTime callback:(nonnull RCTResponseSenderBlock)callback)
+RCT_EXPORT_METHOD(writeWithoutResponse:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUID  characteristicUUID:(NSString*)characteristicUUID message:(NSArray*)message maxByteSize:(NSInteger)maxByteSize queueSleepTime:(NSInteger)queueSleepTime priority:(NSString *)priority callback:(nonnull RCTResponseSenderBlock)callback)
 {
     NSLog(@"writeWithoutResponse");
     
-    BLECommandContext *context = [self getData:deviceUUID serviceUUIDString:serviceUUID characteristicUUIDString:characteristicUUID prop:CBCharacteristicPropertyWriteWithoutResponse callback:callback];
     unsigned long c = [message count];
     uint8_t *bytes = malloc(sizeof(*bytes) * c);
     
@@ -604,6 +648,29 @@ RCT_EXPORT_METHOD(writeWithoutResponse:(NSString *)deviceUUID serviceUUID:(NSStr
         bytes[i] = byte;
     }
     NSData *dataMessage = [NSData dataWithBytesNoCopy:bytes length:c freeWhenDone:YES];
+    [self writeWithoutResponseData:dataMessage deviceUUID:deviceUUID serviceUUID:serviceUUID characteristicUUID:characteristicUUID maxByteSize:maxByteSize queueSleepTime:queueSleepTime callback:callback];
+}
+
+RCT_EXPORT_METHOD(writeWithoutResponseBase64:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUID  characteristicUUID:(NSString*)characteristicUUID data:(NSString*)data maxByteSize:(NSInteger)maxByteSize queueSleepTime:(NSInteger)queueSleepTime priority:(NSString *)priority callback:(nonnull RCTResponseSenderBlock)callback)
+{
+    NSLog(@"writeWithoutResponseBase64");
+
+    if (data == nil) {
+        callback(@[@"Data required."]);
+        return;
+    }
+    NSString *invalidReason = invalidBase64Reason(data);
+    if (invalidReason) {
+        callback(@[[NSString stringWithFormat:@"Invalid base64 data: %@", invalidReason]]);
+        return;
+    }
+    NSData *dataMessage = [[NSData alloc] initWithBase64EncodedString:data options:0];
+    [self writeWithoutResponseData:dataMessage deviceUUID:deviceUUID serviceUUID:serviceUUID characteristicUUID:characteristicUUID maxByteSize:maxByteSize queueSleepTime:queueSleepTime callback:callback];
+}
+
+- (void)writeWithoutResponseData:(NSData *)dataMessage deviceUUID:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUID characteristicUUID:(NSString*)characteristicUUID maxByteSize:(NSInteger)maxByteSize queueSleepTime:(NSInteger)queueSleepTime callback:(nonnull RCTResponseSenderBlock)callback
+{
+    BLECommandContext *context = [self getData:deviceUUID serviceUUIDString:serviceUUID characteristicUUIDString:characteristicUUID prop:CBCharacteristicPropertyWriteWithoutResponse callback:callback];
     if (context) {
         if ([dataMessage length] > maxByteSize) {
             NSUInteger length = [dataMessage length];
@@ -636,7 +703,7 @@ RCT_EXPORT_METHOD(writeWithoutResponse:(NSString *)deviceUUID serviceUUID:(NSStr
 }
 
 
-RCT_EXPORT_METHOD(read:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUID  characteristicUUID:(NSString*)characteristicUUID callback:(nonnull RCTResponseSenderBlock)callback)
+RCT_EXPORT_METHOD(read:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUID  characteristicUUID:(NSString*)characteristicUUID priority:(NSString *)priority callback:(nonnull RCTResponseSenderBlock)callback)
 {
     NSLog(@"read");
     
@@ -654,7 +721,7 @@ RCT_EXPORT_METHOD(read:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUID
     
 }
 
-RCT_EXPORT_METHOD(readRSSI:(NSString *)deviceUUID callback:(nonnull RCTResponseSenderBlock)callback)
+RCT_EXPORT_METHOD(readRSSI:(NSString *)deviceUUID priority:(NSString *)priority callback:(nonnull RCTResponseSenderBlock)callback)
 {
     NSLog(@"readRSSI");
     
@@ -699,7 +766,7 @@ RCT_EXPORT_METHOD(readDescriptor:(NSString *)deviceUUID serviceUUID:(NSString*)s
 
 }
 
-RCT_EXPORT_METHOD(retrieveServices:(NSString *)deviceUUID services:(NSArray<NSString *> *)services callback:(nonnull RCTResponseSenderBlock)callback)
+RCT_EXPORT_METHOD(retrieveServices:(NSString *)deviceUUID services:(NSArray<NSString *> *)services options:(NSDictionary *)options callback:(nonnull RCTResponseSenderBlock)callback)
 {
     NSLog(@"retrieveServices %@", services);
     
@@ -797,6 +864,47 @@ RCT_EXPORT_METHOD(requestMTU:(NSString *)deviceUUID mtu:(NSInteger)mtu callback:
     callback(@[@"Not supported"]);
 }
 
+RCT_EXPORT_METHOD(startNotificationWithOptions:(NSString *)deviceUUID serviceUUID:(NSString*)serviceUUID  characteristicUUID:(NSString*)characteristicUUID options:(NSDictionary *)options callback:(nonnull RCTResponseSenderBlock)callback)
+{
+    // The options only change how Android delivers the values, they are ignored here
+    [self startNotification:deviceUUID serviceUUID:serviceUUID characteristicUUID:characteristicUUID callback:callback];
+}
+
+RCT_EXPORT_METHOD(readMany:(NSString *)deviceUUID operations:(NSArray *)operations callback:(nonnull RCTResponseSenderBlock)callback)
+{
+    callback(@[@"Not supported"]);
+}
+
+RCT_EXPORT_METHOD(writeMany:(NSString *)deviceUUID operations:(NSArray *)operations callback:(nonnull RCTResponseSenderBlock)callback)
+{
+    callback(@[@"Not supported"]);
+}
+
+RCT_EXPORT_METHOD(startNotificationMany:(NSString *)deviceUUID operations:(NSArray *)operations callback:(nonnull RCTResponseSenderBlock)callback)
+{
+    callback(@[@"Not supported"]);
+}
+
+RCT_EXPORT_METHOD(getDiscoveredPeripheralsSince:(nonnull NSNumber *)sequence callback:(nonnull RCTResponseSenderBlock)callback)
+{
+    callback(@[@"Not supported"]);
+}
+
+RCT_EXPORT_METHOD(getTrace:(nonnull RCTResponseSenderBlock)callback)
+{
+    callback(@[@"Not supported"]);
+}
+
+RCT_EXPORT_METHOD(getMetrics:(nonnull RCTResponseSenderBlock)callback)
+{
+    callback(@[@"Not supported"]);
+}
+
+RCT_EXPORT_METHOD(resetMetrics:(nonnull RCTResponseSenderBlock)callback)
+{
+    callback(@[@"Not supported"]);
+}
+
 - (void)peripheral:(CBPeripheral *)peripheral didWriteValueForCharacteristic:(CBCharacteristic *)characteristic error:(NSError *)error {
     NSLog(@"didWrite");
     
@@ -5,9 +5,19 @@ import {
   BleScanMatchMode,
   BleScanMode,
   BleState,
+  CommandPriority,
+  CompactPeripheralInfo,
   ConnectionPriority,
+  DiscoveredPeripheralsChanges,
+  GattTraceEvent,
+  Metrics,
+  GattOperation,
+  GattOperationResult,
+  GattWriteOperation,
+  NotificationOptions,
   Peripheral,
   PeripheralInfo,
+  RetrieveServicesOptions,
   ScanOptions,
   StartOptions
 } from './types';
@@ -26,14 +36,16 @@ class BleManager {
    * @param peripheralId 
    * @param serviceUUID 
    * @param characteristicUUID 
+   * @param priority [Android only] queue lane of the read, defaults to `CommandPriority.Default`
    * @returns data as an array of numbers (which can be converted back to a Uint8Array (ByteArray) using something like [Buffer.from()](https://github.com/feross/buffer))
    */
-  read(peripheralId: string, serviceUUID: string, characteristicUUID: string) {
+  read(peripheralId: string, serviceUUID: string, characteristicUUID: string, priority?: CommandPriority) {
     return new Promise<number[]>((fulfill, reject) => {
       bleManager.read(
         peripheralId,
         serviceUUID,
         characteristicUUID,
+        priority,
         (error: string | null, data: number[]) => {
           if (error) {
             reject(error);
@@ -76,9 +88,9 @@ class BleManager {
    * @param peripheralId 
    * @returns a promise resolving with the updated RSSI (`number`) if it succeeds.
    */
-  readRSSI(peripheralId: string) {
+  readRSSI(peripheralId: string, priority?: CommandPriority) {
     return new Promise<number>((fulfill, reject) => {
-      bleManager.readRSSI(peripheralId, (error: string | null, rssi: number) => {
+      bleManager.readRSSI(peripheralId, priority, (error: string | null, rssi: number) => {
         if (error) {
           reject(error);
         } else {
@@ -109,14 +121,18 @@ class BleManager {
    * 
    * @param peripheralId 
    * @param serviceUUIDs [iOS only] optional filter of services to retrieve.
+   * @param options [Android only] optional, `compact: true` sends properties and permissions as bitmasks.
    * @returns 
    */
-  retrieveServices(peripheralId: string, serviceUUIDs: string[] = []) {
-    return new Promise<PeripheralInfo>((fulfill, reject) => {
+  retrieveServices(peripheralId: string, serviceUUIDs?: string[], options?: RetrieveServicesOptions & { compact?: false }): Promise<PeripheralInfo>;
+  retrieveServices(peripheralId: string, serviceUUIDs: string[], options: RetrieveServicesOptions & { compact: true }): Promise<CompactPeripheralInfo>;
+  retrieveServices(peripheralId: string, serviceUUIDs: string[] = [], options?: RetrieveServicesOptions) {
+    return new Promise<PeripheralInfo | CompactPeripheralInfo>((fulfill, reject) => {
       bleManager.retrieveServices(
         peripheralId,
         serviceUUIDs,
-        (error: string | null, peripheral: PeripheralInfo) => {
+        options,
+        (error: string | null, peripheral: PeripheralInfo | CompactPeripheralInfo) => {
           if (error) {
             reject(error);
           } else {
@@ -134,6 +150,7 @@ class BleManager {
    * @param characteristicUUID 
    * @param data data to write as an array of numbers (which can be converted from a Uint8Array (ByteArray) using something like [Buffer.toJSON().data](https://github.com/feross/buffer))
    * @param maxByteSize optional, defaults to 20
+   * @param priority [Android only] queue lane of the write, defaults to `CommandPriority.Default`
    * @returns 
    */
   write(
@@ -141,7 +158,8 @@ class BleManager {
     serviceUUID: string,
     characteristicUUID: string,
     data: number[],
-    maxByteSize: number = 20
+    maxByteSize: number = 20,
+    priority?: CommandPriority
   ) {
 
     return new Promise<void>((fulfill, reject) => {
@@ -151,6 +169,46 @@ class BleManager {
         characteristicUUID,
         data,
         maxByteSize,
+        priority,
+        (error: string | null) => {
+          if (error) {
+            reject(error);
+          } else {
+            fulfill();
+          }
+        }
+      );
+    });
+  }
+
+  /**
+   * Same as `write`, with the data as a Base64 string which is decoded natively in one step.
+   * Preferred for large payloads such as firmware images.
+   * @param peripheralId 
+   * @param serviceUUID 
+   * @param characteristicUUID 
+   * @param data data to write encoded in Base64, for instance with [Buffer.toString('base64')](https://github.com/feross/buffer)
+   * @param maxByteSize optional, defaults to 20
+   * @param priority [Android only] queue lane of the write, defaults to `CommandPriority.Default`
+   * @returns 
+   */
+  writeBase64(
+    peripheralId: string,
+    serviceUUID: string,
+    characteristicUUID: string,
+    data: string,
+    maxByteSize: number = 20,
+    priority?: CommandPriority
+  ) {
+
+    return new Promise<void>((fulfill, reject) => {
+      bleManager.writeBase64(
+        peripheralId,
+        serviceUUID,
+        characteristicUUID,
+        data,
+        maxByteSize,
+        priority,
         (error: string | null) => {
           if (error) {
             reject(error);
@@ -169,7 +227,8 @@ class BleManager {
    * @param characteristicUUID 
    * @param data data to write as an array of numbers (which can be converted from a Uint8Array (ByteArray) using something like [Buffer.toJSON().data](https://github.com/feross/buffer))
    * @param maxByteSize optional, defaults to 20
-   * @param queueSleepTime optional, defaults to 10. Only useful if data length is greater than maxByteSize.
+   * @param queueSleepTime optional, defaults to 10. Only useful if data length is greater than maxByteSize. [Android] only applied on Android 9 and below, newer versions are paced by the stack flow control.
+   * @param priority [Android only] queue lane of the write, defaults to `CommandPriority.Default`
    * @returns 
    */
   writeWithoutResponse(
@@ -178,7 +237,8 @@ class BleManager {
     characteristicUUID: string,
     data: number[],
     maxByteSize: number = 20,
-    queueSleepTime: number = 10
+    queueSleepTime: number = 10,
+    priority?: CommandPriority
   ) {
 
     return new Promise<void>((fulfill, reject) => {
@@ -189,6 +249,48 @@ class BleManager {
         data,
         maxByteSize,
         queueSleepTime,
+        priority,
+        (error: string | null) => {
+          if (error) {
+            reject(error);
+          } else {
+            fulfill();
+          }
+        }
+      );
+    });
+  }
+
+  /**
+   * Same as `writeWithoutResponse`, with the data as a Base64 string which is decoded natively in one step.
+   * @param peripheralId 
+   * @param serviceUUID 
+   * @param characteristicUUID 
+   * @param data data to write encoded in Base64, for instance with [Buffer.toString('base64')](https://github.com/feross/buffer)
+   * @param maxByteSize optional, defaults to 20
+   * @param queueSleepTime optional, defaults to 10. Only useful if data length is greater than maxByteSize. [Android] only applied on Android 9 and below, newer versions are paced by the stack flow control.
+   * @param priority [Android only] queue lane of the write, defaults to `CommandPriority.Default`
+   * @returns 
+   */
+  writeWithoutResponseBase64(
+    peripheralId: string,
+    serviceUUID: string,
+    characteristicUUID: string,
+    data: string,
+    maxByteSize: number = 20,
+    queueSleepTime: number = 10,
+    priority?: CommandPriority
+  ) {
+
+    return new Promise<void>((fulfill, reject) => {
+      bleManager.writeWithoutResponseBase64(
+        peripheralId,
+        serviceUUID,
+        characteristicUUID,
+        data,
+        maxByteSize,
+        queueSleepTime,
+        priority,
         (error: string | null) => {
           if (error) {
             reject(error);
@@ -200,6 +302,52 @@ class BleManager {
     });
   }
 
+  /**
+   * [Android only]
+   * Reads several characteristics with a single call, the reads are queued back to back.
+   * @param peripheralId 
+   * @param operations the characteristics to read
+   * @returns one result per operation, in the same order. A failed read sets `error` and doesn't stop the others.
+   */
+  readMany(peripheralId: string, operations: GattOperation[]) {
+    return new Promise<GattOperationResult[]>((fulfill, reject) => {
+      bleManager.readMany(
+        peripheralId,
+        operations,
+        (error: string | null, results: GattOperationResult[]) => {
+          if (error) {
+            reject(error);
+          } else {
+            fulfill(results);
+          }
+        }
+      );
+    });
+  }
+
+  /**
+   * [Android only]
+   * Writes several characteristics with a single call, the writes are queued back to back.
+   * @param peripheralId 
+   * @param operations the writes, each one with its data
+   * @returns one result per operation, in the same order. A failed write sets `error` and doesn't stop the others.
+   */
+  writeMany(peripheralId: string, operations: GattWriteOperation[]) {
+    return new Promise<GattOperationResult[]>((fulfill, reject) => {
+      bleManager.writeMany(
+        peripheralId,
+        operations,
+        (error: string | null, results: GattOperationResult[]) => {
+          if (error) {
+            reject(error);
+          } else {
+            fulfill(results);
+          }
+        }
+      );
+    });
+  }
+
   connect(peripheralId: string) {
     return new Promise<void>((fulfill, reject) => {
       bleManager.connect(peripheralId, (error: string | null) => {
@@ -265,17 +413,65 @@ class BleManager {
     });
   }
 
-  startNotification(peripheralId: string, serviceUUID: string, characteristicUUID: string) {
+  /**
+   * 
+   * @param peripheralId 
+   * @param serviceUUID 
+   * @param characteristicUUID 
+   * @param options [Android only] optional, e.g. the encoding of the notified values.
+   * @returns 
+   */
+  startNotification(
+    peripheralId: string,
+    serviceUUID: string,
+    characteristicUUID: string,
+    options?: NotificationOptions
+  ) {
     return new Promise<void>((fulfill, reject) => {
-      bleManager.startNotification(
+      const callback = (error: string | null) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill();
+        }
+      };
+
+      if (options) {
+        bleManager.startNotificationWithOptions(
+          peripheralId,
+          serviceUUID,
+          characteristicUUID,
+          options,
+          callback
+        );
+      } else {
+        bleManager.startNotification(
+          peripheralId,
+          serviceUUID,
+          characteristicUUID,
+          callback
+        );
+      }
+    });
+  }
+
+  /**
+   * [Android only]
+   * Starts the notifications of several characteristics with a single call.
+   * @param peripheralId 
+   * @param operations the characteristics to start notifying
+   * @returns one result per operation, in the same order. A failed start sets `error` and doesn't stop the others.
+   */
+  startNotificationMany(peripheralId: string, operations: GattOperation[]) {
+    return new Promise<GattOperationResult[]>((fulfill, reject) => {
+      bleManager.startNotificationMany(
         peripheralId,
-        serviceUUID,
-        characteristicUUID,
-        (error: string | null) => {
+        operations,
+        (error: string | null, results: GattOperationResult[]) => {
           if (error) {
             reject(error);
           } else {
-            fulfill();
+            fulfill(results);
           }
         }
       );
@@ -357,7 +553,10 @@ class BleManager {
    * 
    * @param serviceUUIDs 
    * @param seconds amount of seconds to scan. if set to 0 or less, will scan until you call stopScan() or the OS stops the scan (background etc).
-   * @param allowDuplicates [iOS only]
+   * @param allowDuplicates report every advertisement of a peripheral. Defaults to `false`: a peripheral already
+   * reported is only reported again once its advertising data changed, on iOS and, since this version, on Android.
+   * **Breaking on Android:** every advertisement used to be reported whatever this flag, pass `true` to keep
+   * following the RSSI of peripherals.
    * @param scanningOptions [Android only] optional map of properties to fine-tune scan behavior on android, see README.
    * @returns 
    */
@@ -510,6 +709,70 @@ class BleManager {
     });
   }
 
+  /**
+   * [Android only]
+   * @param sequence the `sequence` of the previous call, 0 to get every peripheral.
+   * @returns the peripherals added or updated and the ids of those removed since that call.
+   */
+  getDiscoveredPeripheralsSince(sequence: number) {
+    return new Promise<DiscoveredPeripheralsChanges>((fulfill, reject) => {
+      bleManager.getDiscoveredPeripheralsSince(sequence, (error: string | null, result: DiscoveredPeripheralsChanges) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(result);
+        }
+      });
+    });
+  }
+
+  /**
+   * [Android only]
+   * @returns counters and latencies since the last `resetMetrics()`, globally and per connected peripheral.
+   */
+  getMetrics() {
+    return new Promise<Metrics>((fulfill, reject) => {
+      bleManager.getMetrics((error: string | null, result: Metrics) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(result);
+        }
+      });
+    });
+  }
+
+  /**
+   * [Android only]
+   */
+  resetMetrics() {
+    return new Promise<void>((fulfill, reject) => {
+      bleManager.resetMetrics((error: string | null) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill();
+        }
+      });
+    });
+  }
+
+  /**
+   * [Android only] needs `traceBufferSize` in `start()`.
+   * @returns the recent GATT events, oldest first.
+   */
+  getTrace() {
+    return new Promise<GattTraceEvent[]>((fulfill, reject) => {
+      bleManager.getTrace((error: string | null, result: GattTraceEvent[]) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(result);
+        }
+      });
+    });
+  }
+
   /**
    * [Android only]
    * @param peripheralId 
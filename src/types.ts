@@ -74,8 +74,76 @@ export interface StartOptions {
    * [android only]
    */
   forceLegacy?: boolean;
+  /**
+   * [android only]
+   * if set to a value greater than 0, characteristic notifications are not emitted one by one as
+   * `BleManagerDidUpdateValueForCharacteristic` but collected and emitted as a single
+   * `BleManagerDidUpdateValueForCharacteristicBatch` event at most every `notificationBatchInterval` ms.
+   */
+  notificationBatchInterval?: number;
+  /**
+   * [android only]
+   * maximum number of notifications in one batch, the batch is emitted early when it is reached. Defaults to 100.
+   */
+  notificationBatchSize?: number;
+  /**
+   * [android only]
+   * thread running the command queue and GATT callbacks of the peripherals:
+   * `main` (default) uses the main looper, `peripheral` a dedicated thread per peripheral,
+   * `pool` a fixed number of threads (`gattThreadPoolSize`) shared between peripherals.
+   * Changing it in a later `start` disconnects every peripheral and clears the discovered ones.
+   */
+  gattThreading?: 'main' | 'peripheral' | 'pool';
+  /**
+   * [android only]
+   * number of threads when `gattThreading` is `pool`. Defaults to 2.
+   */
+  gattThreadPoolSize?: number;
+  /**
+   * [android only]
+   * ms a GATT operation may wait for the stack to answer before its callback fails and the
+   * `BleManagerCommandTimeout` event is emitted. A write sent in several chunks gets this
+   * time for each chunk. Defaults to 0, waiting forever.
+   */
+  commandTimeout?: number;
+  /**
+   * [android only]
+   * number of peripherals whose latest scan result may wait for processing at once,
+   * results of other peripherals are dropped until the queue drains. Defaults to 256.
+   */
+  scanQueueSize?: number;
+  /**
+   * [android only]
+   * number of discovered peripherals kept, the least recently seen ones that are not connected
+   * are forgotten first. 0 keeps them all. Defaults to 1024.
+   */
+  maxPeripherals?: number;
+  /**
+   * [android only]
+   * ms after which a peripheral that was not seen again and is not connected is forgotten.
+   * Defaults to 0, keeping them until the next scan starts.
+   */
+  peripheralTtl?: number;
+  /**
+   * [android only]
+   * minimum level of the native logs. Defaults to `debug`.
+   */
+  logLevel?: 'verbose' | 'debug' | 'info' | 'warn' | 'error' | 'none';
+  /**
+   * [android only]
+   * number of recent GATT events kept for `getTrace()`. Defaults to 0, tracing disabled.
+   */
+  traceBufferSize?: number;
 }
 
+export type AdvertisingField =
+  | 'localName'
+  | 'manufacturerData'
+  | 'serviceUUIDs'
+  | 'serviceData'
+  | 'txPowerLevel'
+  | 'isConnectable';
+
 /**
  * [android only]
  * https://developer.android.com/reference/android/bluetooth/le/ScanSettings
@@ -104,6 +172,27 @@ export interface ScanOptions {
    * https://developer.android.com/reference/android/bluetooth/le/ScanSettings.Builder#setReportDelay(long)
    */
   reportDelay?: number;
+  /**
+   * [Android only] minimum time in ms between two BleManagerDiscoverPeripheral events for the same peripheral.
+   * Defaults to 0.
+   */
+  minReportInterval?: number;
+  /**
+   * [Android only] when set, a peripheral already reported is only reported again if its advertising data
+   * changed or its RSSI moved by at least this many dB, whatever allowDuplicates. Defaults to 0 (disabled).
+   */
+  reportRssiDelta?: number;
+  /**
+   * [Android only] if greater than 0, discovered peripherals are emitted as one
+   * `BleManagerDiscoverPeripheralBatch` event every `discoverBatchInterval` ms
+   * instead of one `BleManagerDiscoverPeripheral` each.
+   */
+  discoverBatchInterval?: number;
+  /**
+   * [Android only] advertising fields sent with discovered peripherals, id, name and rssi are always sent.
+   * Defaults to all of them.
+   */
+  advertisingFields?: AdvertisingField[];
   /**
    * Does not work in conjunction with legacy scans. Setting an unsupported PHY will result in a failure to scan,
    * use with caution.
@@ -183,6 +272,120 @@ export enum ConnectionPriority {
   low = 2,
 }
 
+/**
+ * [android only]
+ * queue lane of a GATT operation. Operations of a higher lane run first, but an operation that
+ * has been passed over 8 times in a row runs before the next one of a higher lane.
+ */
+export enum CommandPriority {
+  /**
+   * latency sensitive operations, e.g. commands to actuators.
+   */
+  Control = 'control',
+  /**
+   * the lane every operation uses unless told otherwise.
+   */
+  Default = 'default',
+  /**
+   * background transfers that may wait, e.g. a sync of logged data.
+   */
+  Bulk = 'bulk',
+}
+
+/**
+ * [android only]
+ * encoding used to send a notified characteristic value over the bridge.
+ */
+export enum NotificationEncoding {
+  /**
+   * an array of numbers, one per byte (default).
+   */
+  Array = 'array',
+  /**
+   * a single base64-encoded string.
+   */
+  Base64 = 'base64',
+  /**
+   * a single hex-encoded string (uppercase, two characters per byte).
+   */
+  Hex = 'hex',
+}
+
+/**
+ * [android only]
+ */
+export interface NotificationOptions {
+  /**
+   * defaults to `NotificationEncoding.Array`.
+   * `Base64` and `Hex` send one string per notification instead of one boxed number per byte,
+   * which is a lot cheaper for high-rate notifications.
+   */
+  encoding?: NotificationEncoding;
+  /**
+   * buffer notified values and emit them in frames of `bufferSize` bytes.
+   * Defaults to 512 when `delimiter` or `lengthPrefixSize` is set, otherwise values are not buffered.
+   */
+  bufferSize?: number;
+  /**
+   * emit a frame when this byte value (0-255) is received, the delimiter is not included in the frame.
+   */
+  delimiter?: number;
+  /**
+   * frames start with a little endian length prefix of 1 or 2 bytes giving the payload length,
+   * the prefix is not included in the emitted frame.
+   */
+  lengthPrefixSize?: 1 | 2;
+  /**
+   * maximum time in ms a partial frame is kept before being emitted anyway.
+   */
+  bufferTimeout?: number;
+}
+
+/**
+ * [android only]
+ * one characteristic of `readMany` or `startNotificationMany`.
+ */
+export interface GattOperation {
+  service: string;
+  characteristic: string;
+}
+
+/**
+ * [android only]
+ * one write of `writeMany`.
+ */
+export interface GattWriteOperation extends GattOperation {
+  /**
+   * the data to write, see `write()`.
+   */
+  data: number[];
+  /**
+   * max byte size before splitting the data, defaults to 20.
+   */
+  maxByteSize?: number;
+  /**
+   * write without response, defaults to false.
+   */
+  withoutResponse?: boolean;
+}
+
+/**
+ * [android only]
+ * outcome of one operation of `readMany`, `writeMany` or `startNotificationMany`.
+ */
+export interface GattOperationResult {
+  service: string;
+  characteristic: string;
+  /**
+   * the value read, only set by `readMany`.
+   */
+  value?: number[];
+  /**
+   * set if the operation failed.
+   */
+  error?: string;
+}
+
 export interface Service {
   uuid: string;
 }
@@ -220,17 +423,193 @@ export interface PeripheralInfo extends Peripheral {
   services?: Service[];
 }
 
+/**
+ * [android only]
+ */
+export interface RetrieveServicesOptions {
+  /**
+   * send properties and permissions as the Android bitmasks
+   * (https://developer.android.com/reference/android/bluetooth/BluetoothGattCharacteristic#constants)
+   * instead of string maps. Defaults to false.
+   */
+  compact?: boolean;
+}
+
+/**
+ * [android only]
+ * a characteristic returned by `retrieveServices` with `compact: true`.
+ */
+export interface CompactCharacteristic {
+  /**
+   * bitmask of the `BluetoothGattCharacteristic.PROPERTY_*` constants.
+   */
+  properties: number;
+  /**
+   * bitmask of the `BluetoothGattCharacteristic.PERMISSION_*` constants, omitted when 0.
+   */
+  permissions?: number;
+  characteristic: string;
+  service: string;
+  descriptors?: (Descriptor & { permissions?: number })[];
+}
+
+/**
+ * [android only]
+ */
+export interface CompactPeripheralInfo extends Peripheral {
+  characteristics?: CompactCharacteristic[];
+  services?: Service[];
+}
+
+/**
+ * [Android only]
+ */
+export interface DiscoveredPeripheralsChanges {
+  /**
+   * to pass to the next `getDiscoveredPeripheralsSince` call.
+   */
+  sequence: number;
+  /**
+   * true when `peripherals` holds every known peripheral and replaces the previous list.
+   */
+  reset: boolean;
+  /**
+   * peripherals added or updated since the previous call.
+   */
+  peripherals: Peripheral[];
+  /**
+   * ids of the peripherals forgotten since the previous call.
+   */
+  removed: string[];
+}
+
+/**
+ * [Android only]
+ */
+export interface GattTraceEvent {
+  /**
+   * ms since epoch.
+   */
+  timestamp: number;
+  /**
+   * a GATT callback such as `characteristicChanged` or `connectionStateChange`,
+   * the name of a command starting such as `read` or `write`, or `timeout`.
+   */
+  event: string;
+  peripheral: string;
+  characteristic?: string;
+  /**
+   * GATT status of callbacks.
+   */
+  status: number;
+  /**
+   * value length for reads and notifications, new state for `connectionStateChange`,
+   * MTU for `mtuChanged` and ms waited for `timeout`.
+   */
+  length: number;
+}
+
+/**
+ * [Android only] durations in ms, percentiles are the upper bound of a power of two bucket.
+ */
+export interface LatencyMetrics {
+  count: number;
+  mean: number;
+  max: number;
+  p50: number;
+  p90: number;
+  p99: number;
+}
+
+/**
+ * [Android only]
+ */
+export interface CommandMetrics {
+  /**
+   * time waiting in the queue before starting.
+   */
+  queueTime: LatencyMetrics;
+  /**
+   * time from queueing to successful completion.
+   */
+  completionTime: LatencyMetrics;
+  failures: number;
+  timeouts: number;
+}
+
+/**
+ * [Android only]
+ */
+export interface GattMetrics {
+  queueDepth: number;
+  /**
+   * by command name, e.g. `read`, `write`, `registerNotify`, `requestMTU` or `readRSSI`.
+   */
+  commands: { [command: string]: CommandMetrics };
+  notifications: number;
+  notificationBytes: number;
+  notificationsPerSecond: number;
+  notificationBytesPerSecond: number;
+  /**
+   * notify buffer frames cut because they didn't fit in the buffer.
+   */
+  bufferOverflows: number;
+  /**
+   * bytes of those frames that didn't fit: the skipped payload of length prefixed frames, the bytes sent as a
+   * cut frame when no delimiter came in time.
+   */
+  bufferOverflowBytes: number;
+  /**
+   * bytes of partial frames dropped when a buffered notification stopped.
+   */
+  bufferDroppedBytes: number;
+}
+
+/**
+ * [Android only]
+ */
+export interface Metrics extends GattMetrics {
+  /**
+   * seconds since the metrics were reset, rates are computed over it.
+   */
+  elapsed: number;
+  eventsEmitted: number;
+  eventsPerSecond: number;
+  scanResults: number;
+  scanResultsPerSecond: number;
+  scanResultsDropped: number;
+  scanResultsReported: number;
+  peripheralCapacityEvictions: number;
+  peripheralTtlEvictions: number;
+  /**
+   * metrics of the connected peripherals, by id.
+   */
+  peripherals: { [peripheralId: string]: GattMetrics };
+}
+
 export enum BleEventType {
   BleManagerDidUpdateState = 'BleManagerDidUpdateState',
   BleManagerStopScan = 'BleManagerStopScan',
   BleManagerDiscoverPeripheral = 'BleManagerDiscoverPeripheral',
+  /**
+   * [Android only]
+   */
+  BleManagerDiscoverPeripheralBatch = 'BleManagerDiscoverPeripheralBatch',
   BleManagerDidUpdateValueForCharacteristic = 'BleManagerDidUpdateValueForCharacteristic',
+  /**
+   * [Android only]
+   */
+  BleManagerDidUpdateValueForCharacteristicBatch = 'BleManagerDidUpdateValueForCharacteristicBatch',
   BleManagerConnectPeripheral = 'BleManagerConnectPeripheral',
   BleManagerDisconnectPeripheral = 'BleManagerDisconnectPeripheral',
   /**
    * [Android only]
    */
   BleManagerPeripheralDidBond = 'BleManagerPeripheralDidBond',
+  /**
+   * [Android only]
+   */
+  BleManagerCommandTimeout = 'BleManagerCommandTimeout',
   /**
    * [iOS only]
    */
@@ -304,9 +683,47 @@ export interface BleManagerDidUpdateValueForCharacteristicEvent {
   readonly service: string;
   /**
    * data as an array of numbers (which can be converted back to a Uint8Array (ByteArray), 
-   * using something like [Buffer.from()](https://github.com/feross/buffer))
+   * using something like [Buffer.from()](https://github.com/feross/buffer)).
+   * [android only] a base64 or hex string if another `NotificationEncoding` was requested in `startNotification`.
+   */
+  readonly value: number[] | string;
+}
+
+/**
+ * [Android only]
+ */
+export interface BleManagerCommandTimeoutEvent {
+  readonly peripheral: string;
+  /**
+   * name of the operation, e.g. `read`, `write` or `registerNotify`.
+   */
+  readonly command: string;
+  /**
+   * ms the operation waited for.
+   */
+  readonly timeout: number;
+}
+
+/**
+ * [Android only]
+ */
+export interface BleManagerDiscoverPeripheralBatchEvent {
+  /**
+   * peripherals reported during the window, each one once with its latest state.
+   */
+  readonly peripherals: Peripheral[];
+}
+
+export interface BleManagerDidUpdateValueForCharacteristicBatchEvent {
+  /**
+   * notifications in the order they were received.
    */
-  readonly value: number[];
+  readonly values: (BleManagerDidUpdateValueForCharacteristicEvent & {
+    /**
+     * reception time, in ms since epoch.
+     */
+    readonly timestamp: number;
+  })[];
 }
 
 /**